@@ -39,6 +39,11 @@ public class BallMorph extends Morph {
 		return true;
 	}
 	
+	@Override
+	public boolean canStepConcurrently() {
+		return true;
+	}
+	
 	@Override
 	public boolean contains(Point point) {
 		return point.radius() <= 1;
@@ -40,4 +40,9 @@ public class ClockMorph extends Morph {
 	public boolean wantsSteps() {
 		return true;
 	}
+
+	@Override
+	public boolean stepsOnlyWhenVisible() {
+		return true;
+	}
 }
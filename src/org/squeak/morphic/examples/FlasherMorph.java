@@ -23,6 +23,11 @@ public class FlasherMorph extends Morph {
 	public boolean wantsSteps() {
 		return true;
 	}
+
+	@Override
+	public boolean stepsOnlyWhenVisible() {
+		return true;
+	}
 	
 	@Override
 	public float stepTime() {
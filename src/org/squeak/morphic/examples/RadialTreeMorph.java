@@ -1,5 +1,7 @@
 package org.squeak.morphic.examples;
 
+import java.util.Collection;
+
 import org.squeak.morphic.kernel.Canvas;
 import org.squeak.morphic.kernel.Color;
 import org.squeak.morphic.kernel.Morph;
@@ -27,25 +29,48 @@ public class RadialTreeMorph extends Morph {
 
 	@Override
 	protected void addMorphAtIndex(Morph morph, int index) {
-		for (int i=0; i<submorphs.length; i++) {
-			submorphs[i].orbitBy((float)(-Math.PI*2/submorphs.length)*i);
-		}
+		unorbitSubmorphs();
 		super.addMorphAtIndex(morph, index);
-		for (int i=0; i<submorphs.length; i++) {
-			submorphs[i].setPosition(getBounds().bottomCenter());
-			submorphs[i].orbitBy((float)(Math.PI*2/submorphs.length)*i);
-		}
+		orbitSubmorphs();
 	}
 
 	@Override
 	protected void removeMorphAtIndex(int index) {
-		for (int i=0; i<submorphs.length; i++) {
-			submorphs[i].orbitBy((float)(-Math.PI*2/submorphs.length)*i);
-		}
+		unorbitSubmorphs();
 		super.removeMorphAtIndex(index);
-		for (int i=0; i<submorphs.length; i++) {
-			submorphs[i].setPosition(getBounds().bottomCenter());
-			submorphs[i].orbitBy((float)(Math.PI*2/submorphs.length)*i);
+		orbitSubmorphs();
+	}
+
+	@Override
+	public void addMorphs(Collection<? extends Morph> morphs) {
+		unorbitSubmorphs();
+		super.addMorphs(morphs);
+		orbitSubmorphs();
+	}
+
+	@Override
+	public void removeMorphs(Collection<? extends Morph> morphs) {
+		unorbitSubmorphs();
+		super.removeMorphs(morphs);
+		orbitSubmorphs();
+	}
+
+	private void unorbitSubmorphs() {
+		int n = submorphs.size();
+		int i = 0;
+		for (Morph morph: submorphs) {
+			morph.orbitBy((float)(-Math.PI*2/n)*i);
+			i++;
+		}
+	}
+
+	private void orbitSubmorphs() {
+		int n = submorphs.size();
+		int i = 0;
+		for (Morph morph: submorphs) {
+			morph.setPosition(getBounds().bottomCenter());
+			morph.orbitBy((float)(Math.PI*2/n)*i);
+			i++;
 		}
 	}
 
@@ -25,6 +25,11 @@ public class ScreenMorph extends Morph {
 	public boolean wantsSteps() {
 		return true;
 	}
+
+	@Override
+	public boolean stepsOnlyWhenVisible() {
+		return true;
+	}
 	
 	@Override
 	public void step(float dt) {
@@ -28,7 +28,7 @@ public class WorldMapMorph extends Morph {
 	
 	@Override
 	protected void draw(Canvas canvas) {
-		Rectangle bounds = getBounds();
+		Rectangle bounds = toLocal(getBounds()); // the canvas is in geographic coordinates
 		canvas.setColor(Color.MAGENTA);
 		canvas.drawImage(image, bounds);
 	}
@@ -1,5 +1,6 @@
 package org.squeak.morphic.examples.hyperbolic;
 
+import org.squeak.morphic.kernel.AbstractCoordinateSystem;
 import org.squeak.morphic.kernel.CoordinateSystem;
 import org.squeak.morphic.kernel.Point;
 import org.squeak.morphic.kernel.coordinates.PolarCoordinateSystem;
@@ -7,7 +8,7 @@ import org.squeak.morphic.kernel.coordinates.PolarCoordinateSystem;
 /*
  * This is the Klein-Beltrami model of hyperbolic geometry.
  */
-public class BeltramiHyperbolicCoordinateSystem implements CoordinateSystem {
+public class BeltramiHyperbolicCoordinateSystem extends AbstractCoordinateSystem {
 
 	static {
 		CoordinateSystem beltrami = new BeltramiHyperbolicCoordinateSystem();
@@ -37,6 +38,20 @@ public class BeltramiHyperbolicCoordinateSystem implements CoordinateSystem {
 		return new Point(argtanh(canonical.x),argtanh(canonical.y));
 	}
 	
+	@Override
+	public void toCanonical(float[] src, float[] dst, int n) {
+		for (int i=0; i<n*2; i++) {
+			dst[i] = (float) Math.tanh(src[i]);
+		}
+	}
+
+	@Override
+	public void toLocal(float[] src, float[] dst, int n) {
+		for (int i=0; i<n*2; i++) {
+			dst[i] = argtanh(src[i]);
+		}
+	}
+	
 	private float argtanh(float x) {
 		return (float) (Math.log((1+x)/(1-x)) / 2.0);
 	}
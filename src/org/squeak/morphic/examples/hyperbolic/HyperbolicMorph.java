@@ -1,24 +1,34 @@
 package org.squeak.morphic.examples.hyperbolic;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.squeak.morphic.kernel.Canvas;
 import org.squeak.morphic.kernel.Color;
 import org.squeak.morphic.kernel.Morph;
-import org.squeak.morphic.kernel.Point;
+import org.squeak.morphic.support.LocalCoordinatesCanvas;
 
 public class HyperbolicMorph extends Morph {
 
+	private final float[][] grid;
+	
 	public HyperbolicMorph() {
 		setCoordinateSystem(new PoincareHyperbolicCoordinateSystem());
+		// straight lines in local coordinates, the canvas flattens them according to the scale
+		List<float[]> lines = new ArrayList<float[]>();
+		for (float v=-10; v<10; v+=0.5) {
+			lines.add(new float[] {-10, v, 10, v});
+			lines.add(new float[] {v, -10, v, 10});
+		}
+		grid = lines.toArray(new float[lines.size()][]);
 	}
 	
 	@Override
 	protected void draw(Canvas canvas) {
+		canvas = new LocalCoordinatesCanvas(canvas, this);
 		canvas.setColor(Color.BLACK);
-		for (float v=-10; v<10; v+=0.5) {
-			for (float u=-10; u<10; u+=0.1) {
-				canvas.drawLine(new Point(u,v), new Point(u+0.1f,v));
-				canvas.drawLine(new Point(v,u), new Point(v,u+0.1f));
-			}
+		for (float[] line: grid) {
+			canvas.drawPolyline(line);
 		}
 	}
 
@@ -1,12 +1,12 @@
 package org.squeak.morphic.examples.hyperbolic;
 
-import org.squeak.morphic.kernel.CoordinateSystem;
+import org.squeak.morphic.kernel.AbstractCoordinateSystem;
 import org.squeak.morphic.kernel.Point;
 
 /*
  * This is the Poincare disk model of hyperbolic geometry.
  */
-public class PoincareHyperbolicCoordinateSystem implements CoordinateSystem {
+public class PoincareHyperbolicCoordinateSystem extends AbstractCoordinateSystem {
 
 	public Point toCanonical(Point local) {
 		// Klein-Beltrami coordinates
@@ -26,12 +26,38 @@ public class PoincareHyperbolicCoordinateSystem implements CoordinateSystem {
 		return new Point(x, y);
 	}
 
-	public Point toLocal(Point canonical) {
-		//TODO
-		return new Point(argtanh(canonical.x),argtanh(canonical.y));
+	@Override
+	public void toCanonical(float[] src, float[] dst, int n) {
+		for (int i=0; i<n*2; i+=2) {
+			// same as toCanonical(Point), without the intermediate polar coordinates
+			double x = src[i];
+			double y = src[i+1];
+			double r = Math.sqrt(x*x + y*y);
+			double k = r == 0 ? 1 : Math.tanh(r) / r;
+			x *= k;
+			y *= k;
+			double t = 1 + Math.sqrt(1-x*x-y*y);
+			dst[i] = (float)(x/t);
+			dst[i+1] = (float)(y/t);
+		}
+	}
+
+	@Override
+	public void toLocal(float[] src, float[] dst, int n) {
+		for (int i=0; i<n*2; i+=2) {
+			// the inverse of toCanonical: Poincare to Klein-Beltrami radius 2p/(1+p^2) = tanh(r), so r = 2 argtanh(p)
+			double x = src[i];
+			double y = src[i+1];
+			double p = Math.sqrt(x*x + y*y);
+			double k = p == 0 ? 2 : Math.log((1+p)/(1-p)) / p;
+			dst[i] = (float)(x*k);
+			dst[i+1] = (float)(y*k);
+		}
 	}
-	
-	private float argtanh(float x) {
-		return (float) (Math.log((1+x)/(1-x)) / 2.0);
+
+	public Point toLocal(Point canonical) {
+		float[] point = {canonical.x, canonical.y};
+		toLocal(point, point, 1);
+		return new Point(point[0], point[1]);
 	}
 }
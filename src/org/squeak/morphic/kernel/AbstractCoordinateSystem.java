@@ -0,0 +1,105 @@
+package org.squeak.morphic.kernel;
+
+/**
+ * <p>A base for coordinate systems, that converts many points at once by converting them one by one.
+ * Subclasses override the bulk conversions when they can do better (for instance without allocating
+ * a <code>Point</code> per point), and affine ones return their equivalent transformation.</p>
+ *
+ * <p>Coordinate systems that only implement {@link CoordinateSystem} are still supported: the static
+ * methods of this class convert with any coordinate system, falling back to its point conversions.</p>
+ *
+ * @see org.squeak.morphic.kernel.CoordinateSystem
+ */
+public abstract class AbstractCoordinateSystem implements CoordinateSystem {
+
+	/**
+	 * Return the affine transformation equivalent to this coordinate system (mapping local
+	 * coordinates to canonical coordinates), or null if the coordinate system is not affine.
+	 * 
+	 * <p>Affine coordinate systems are folded into the morph transformation, so points don't
+	 * need to be converted one by one when drawing or handling events.</p>
+	 * 
+	 * @see org.squeak.morphic.kernel.Morph#getLocalTransformation()
+	 * 
+	 * @return the equivalent Transformation, or null if the coordinate system is not affine (the default)
+	 */
+	public Transformation getTransformation() {
+		return null;
+	}
+
+	/**
+	 * Convert many points from local coordinates to canonical coordinates at once.
+	 * The source and destination arrays can be the same array (to convert in place).
+	 *
+	 * @param src a float[] array of alternating x and y local coordinates
+	 * @param dst a float[] array where the canonical coordinates are written
+	 * @param n the number of points to convert
+	 */
+	public void toCanonical(float[] src, float[] dst, int n) {
+		for (int i=0; i<n*2; i+=2) {
+			Point p = toCanonical(new Point(src[i], src[i+1]));
+			dst[i] = p.x;
+			dst[i+1] = p.y;
+		}
+	}
+
+	/**
+	 * Convert many points from canonical coordinates to local coordinates at once.
+	 * The source and destination arrays can be the same array (to convert in place).
+	 *
+	 * @param src a float[] array of alternating x and y canonical coordinates
+	 * @param dst a float[] array where the local coordinates are written
+	 * @param n the number of points to convert
+	 */
+	public void toLocal(float[] src, float[] dst, int n) {
+		for (int i=0; i<n*2; i+=2) {
+			Point p = toLocal(new Point(src[i], src[i+1]));
+			dst[i] = p.x;
+			dst[i+1] = p.y;
+		}
+	}
+
+	/**
+	 * Return the affine transformation equivalent to the given coordinate system, or null if it is not
+	 * affine or it is not known to be.
+	 *
+	 * @see #getTransformation()
+	 */
+	public static Transformation getTransformation(CoordinateSystem coordinateSystem) {
+		return coordinateSystem instanceof AbstractCoordinateSystem ? ((AbstractCoordinateSystem) coordinateSystem).getTransformation() : null;
+	}
+
+	/**
+	 * Convert many points from local coordinates to canonical coordinates with the given coordinate system.
+	 *
+	 * @see #toCanonical(float[], float[], int)
+	 */
+	public static void toCanonical(CoordinateSystem coordinateSystem, float[] src, float[] dst, int n) {
+		if (coordinateSystem instanceof AbstractCoordinateSystem) {
+			((AbstractCoordinateSystem) coordinateSystem).toCanonical(src, dst, n);
+			return;
+		}
+		for (int i=0; i<n*2; i+=2) {
+			Point p = coordinateSystem.toCanonical(new Point(src[i], src[i+1]));
+			dst[i] = p.x;
+			dst[i+1] = p.y;
+		}
+	}
+
+	/**
+	 * Convert many points from canonical coordinates to local coordinates with the given coordinate system.
+	 *
+	 * @see #toLocal(float[], float[], int)
+	 */
+	public static void toLocal(CoordinateSystem coordinateSystem, float[] src, float[] dst, int n) {
+		if (coordinateSystem instanceof AbstractCoordinateSystem) {
+			((AbstractCoordinateSystem) coordinateSystem).toLocal(src, dst, n);
+			return;
+		}
+		for (int i=0; i<n*2; i+=2) {
+			Point p = coordinateSystem.toLocal(new Point(src[i], src[i+1]));
+			dst[i] = p.x;
+			dst[i+1] = p.y;
+		}
+	}
+}
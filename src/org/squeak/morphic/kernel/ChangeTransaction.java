@@ -0,0 +1,117 @@
+package org.squeak.morphic.kernel;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.squeak.morphic.system.WorldMorph;
+
+/**
+ * <p>The morphs transformed during a change transaction of a world, with the area each one
+ * covered in the world before the first change.</p>
+ *
+ * <p>While a transaction is open, {@link Morph#setTransformation(Transformation)} doesn't report
+ * the full bounds before and after every change: it only records the morph. When the transaction
+ * is committed the area covered by each morph before and after is reported once, so a gesture that
+ * translates, scales and rotates a morph computes its full bounds twice instead of six times.</p>
+ *
+ * @see org.squeak.morphic.system.WorldMorph#batch(Runnable)
+ */
+public final class ChangeTransaction {
+
+	private static final AtomicInteger open = new AtomicInteger(); // transactions not committed yet, in all the worlds
+
+	/**
+	 * Where a morph was before the transaction
+	 */
+	private static class Touch {
+		final Morph root;
+		final float[] box; // in the root space, or null if the morph is unbound
+		Touch(Morph root, float[] box) {
+			this.root = root;
+			this.box = box;
+		}
+	}
+
+	private final Map<Morph, Touch> touched = new IdentityHashMap<Morph, Touch>();
+	private boolean committed;
+
+	/**
+	 * Use {@link WorldMorph#beginChanges()} or {@link WorldMorph#batch(Runnable)} instead
+	 */
+	public ChangeTransaction() {
+		open.incrementAndGet();
+	}
+
+	/**
+	 * Return true if some transaction is open (from its creation until it's committed), so morphs
+	 * only look for the transaction of their world when there may be one.
+	 */
+	static boolean isAnyOpen() {
+		return open.get() > 0;
+	}
+
+	/**
+	 * Record the given morph before it changes, if it wasn't already recorded.
+	 */
+	synchronized void touch(Morph morph) { // morphs stepping concurrently may be touched from other threads
+		if (touched.containsKey(morph)) return;
+		touched.put(morph, locate(morph));
+	}
+
+	/**
+	 * Report the area covered by each morph recorded, before and after its changes, and forget them.
+	 */
+	public synchronized void commit() {
+		for (Map.Entry<Morph, Touch> entry: touched.entrySet()) {
+			Touch before = entry.getValue();
+			Touch after = locate(entry.getKey());
+			if (before.root == after.root) {
+				if (after.root == null) continue;
+				float[] box = after.box, old = before.box;
+				if (box != null && old != null) {
+					if (old[0] < box[0]) box[0] = old[0];
+					if (old[1] < box[1]) box[1] = old[1];
+					if (old[2] > box[2]) box[2] = old[2];
+					if (old[3] > box[3]) box[3] = old[3];
+				}
+				report(after.root, old == null ? null : box);
+			} else { // moved to another tree meanwhile
+				if (before.root != null)
+					report(before.root, before.box);
+				if (after.root != null)
+					report(after.root, after.box);
+			}
+		}
+		touched.clear();
+		if (!committed) {
+			committed = true;
+			open.decrementAndGet();
+		}
+	}
+
+	public synchronized int size() {
+		return touched.size();
+	}
+
+	/**
+	 * Return the root of the given morph (its world), and its full bounds as a box in the root space,
+	 * so they don't depend on the owners changing later in the transaction.
+	 */
+	private static Touch locate(Morph morph) {
+		if (morph.owner == null) return new Touch(null, null); // nobody to report to
+		Rectangle bounds = morph.getFullBounds();
+		float[] box = bounds == null ? null : bounds.toBox(new float[4]);
+		Morph root = morph;
+		while (root.owner != null) {
+			if (box != null)
+				box = root.toOuterBox(box);
+			root = root.owner;
+		}
+		return new Touch(root, box);
+	}
+
+	private static void report(Morph root, float[] box) {
+		root.changed(box); // null if unbound, anywhere
+	}
+}
@@ -14,6 +14,7 @@ package org.squeak.morphic.kernel;
  * Buenos Aires, the morph receives a <code>MouseClickEvent</code> with position near (-58,-34).</p>
  * 
  * @see org.squeak.morphic.kernel.Morph
+ * @see org.squeak.morphic.kernel.AbstractCoordinateSystem
  */
 public interface CoordinateSystem {
 	Point toCanonical(Point local);
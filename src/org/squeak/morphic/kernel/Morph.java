@@ -1,6 +1,12 @@
 package org.squeak.morphic.kernel;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Set;
 
 import org.squeak.morphic.kernel.coordinates.CartesianCoordinateSystem;
 import org.squeak.morphic.kernel.events.KeyDownEvent;
@@ -51,20 +57,33 @@ import org.squeak.morphic.system.WorldMorph;
  * @see org.squeak.morphic.kernel.Transformation
  */
 public abstract class Morph {
-	private static final Morph[] EMPTY_ARRAY = new Morph[0];
 
 	protected volatile CoordinateSystem coordinateSystem = CartesianCoordinateSystem.CANONICAL;
 
 	protected volatile Transformation transformation = Transformation.IDENTITY;
 	
+	// the transformation with the coordinate system folded in (null if the coordinate system is not affine)
+	private volatile Transformation localTransformation = Transformation.IDENTITY;
+	
 	protected volatile Morph owner;
-	protected volatile Morph[] submorphs = EMPTY_ARRAY; // Z-order: last one is front, first one is back
+	protected volatile MorphList submorphs = MorphList.EMPTY; // Z-order: last one is front, first one is back
+	private int ownerIndex; // index in the submorphs of the owner when last added or found there, only a hint
 
 	
 	public Morph() { }
 
 	protected final void setCoordinateSystem(CoordinateSystem coordinateSystem) {
 		this.coordinateSystem = coordinateSystem;
+		updateLocalTransformation();
+	}
+	
+	public final CoordinateSystem getCoordinateSystem() {
+		return coordinateSystem;
+	}
+
+	private void updateLocalTransformation() {
+		Transformation coordinateSystemTransformation = AbstractCoordinateSystem.getTransformation(coordinateSystem);
+		localTransformation = coordinateSystemTransformation == null ? null : transformation.with(coordinateSystemTransformation);
 	}
 	
 	public String toString() {
@@ -73,8 +92,9 @@ public abstract class Morph {
 
 	public void printFull() {
 		System.out.println(this);
-		for (int i=0; i<submorphs.length; i++)
-			System.out.println("    "+i+" "+submorphs[i]);
+		int i = 0;
+		for (Morph submorph: submorphs)
+			System.out.println("    "+(i++)+" "+submorph);
 		System.out.println();
 	}
 	
@@ -101,6 +121,18 @@ public abstract class Morph {
 	}
 	
 	private final void setOwner(Morph morph) {
+		removeFromOwner();
+		owner = morph;
+		if (owner != null /*&& !(owner instanceof HandMorph)*/) {
+			changed();
+			startStepping();
+		}
+	}
+
+	/**
+	 * Remove the receiver from its owner, if any, reporting the change and stopping it
+	 */
+	private void removeFromOwner() {
 		if (owner != null) {
 			changed();
 			stopStepping();
@@ -108,11 +140,6 @@ public abstract class Morph {
 			owner = null;
 			oldOwner.removeMorph(this);
 		}
-		owner = morph;
-		if (owner != null /*&& !(owner instanceof HandMorph)*/) {
-			changed();
-			startStepping();
-		}
 	}
 
 	/**
@@ -139,7 +166,7 @@ public abstract class Morph {
 	 * @param morph the morph to be added as the receiver submorph
 	 */
 	public final void addMorphFront(Morph morph) {
-		addMorphAtIndex(morph, submorphs.length);
+		addMorphAtIndex(morph, submorphs.size());
 	}
 
 	/**
@@ -150,13 +177,10 @@ public abstract class Morph {
 	 * @throws NoSuchElementException if the other morph is not a submorph of the receiver
 	 */
 	public final void addMorphFront(Morph morph, Morph other) {
-		for (int i=0; i<submorphs.length; i++) {
-			if (submorphs[i] == other) {
-				addMorphAtIndex(morph, i);
-				return;
-			}
-		}
-		throw new NoSuchElementException("No such submorph: "+other);
+		int index = indexOfSubmorph(submorphs, other);
+		if (index < 0)
+			throw new NoSuchElementException("No such submorph: "+other);
+		addMorphAtIndex(morph, index);
 	}
 
 	/**
@@ -167,26 +191,18 @@ public abstract class Morph {
 	 * @throws NoSuchElementException if the other morph is not a submorph of the receiver
 	 */
 	public final void addMorphBack(Morph morph, Morph other) {
-		for (int i=0; i<submorphs.length; i++) {
-			if (submorphs[i] == other) {
-				addMorphAtIndex(morph, i+1);
-				return;
-			}
-		}
-		throw new NoSuchElementException("No such submorph: "+other);
+		int index = indexOfSubmorph(submorphs, other);
+		if (index < 0)
+			throw new NoSuchElementException("No such submorph: "+other);
+		addMorphAtIndex(morph, index+1);
 	}
 
 	protected void addMorphAtIndex(Morph morph, int index) {
-		if (index < 0 || index > submorphs.length)
+		if (index < 0 || index > submorphs.size())
 			throw new IndexOutOfBoundsException();
 		morph.setOwner(this);
-		Morph[] newSubmorphs = new Morph[submorphs.length+1];
-		for (int i=0; i<index; i++)
-			newSubmorphs[i] = submorphs[i];
-		newSubmorphs[index] = morph;
-		for (int i=index; i<submorphs.length; i++)
-			newSubmorphs[i+1] = submorphs[i];
-		submorphs = newSubmorphs;
+		submorphs = submorphs.insert(index, morph);
+		morph.ownerIndex = index;
 //		fullChanged(); //FIXME why not?
 	}
 	
@@ -197,26 +213,135 @@ public abstract class Morph {
 	 * @throws NoSuchElementException if the given morph is not a submorph of the receiver
 	 */
 	public final void removeMorph(Morph morph) {
-		for (int i=0; i<submorphs.length; i++) {
-			if (submorphs[i] == morph) {
-				removeMorphAtIndex(i);
-				return;
-			}
-		}
-		throw new NoSuchElementException("No such submorph: "+morph);
+		int index = indexOfSubmorph(submorphs, morph);
+		if (index < 0)
+			throw new NoSuchElementException("No such submorph: "+morph);
+		removeMorphAtIndex(index);
+	}
+
+	/**
+	 * Return the index of the given morph in the given submorphs, or -1 if it's not there.
+	 * The index where the morph was last added or found is tried first, so finding it again
+	 * takes <code>O(log n)</code> unless the morphs behind it changed in between.
+	 * 
+	 * @see MorphList#indexOf(Morph, int)
+	 */
+	private static int indexOfSubmorph(MorphList submorphs, Morph morph) {
+		int index = submorphs.indexOf(morph, morph.ownerIndex);
+		if (index >= 0) morph.ownerIndex = index;
+		return index;
 	}
 	
 	protected void removeMorphAtIndex(int index) {
-		Morph[] newSubmorphs = new Morph[submorphs.length-1];
-		for (int i=0; i<index; i++)
-			newSubmorphs[i] = submorphs[i];
-		for (int i=index+1; i<submorphs.length; i++)
-			newSubmorphs[i-1] = submorphs[i];
-		submorphs[index].setOwner(null);
+		MorphList newSubmorphs = submorphs.remove(index);
+		submorphs.get(index).setOwner(null);
 		submorphs = newSubmorphs;
 //		fullChanged(); //FIXME why not?
 	}
 	
+	/**
+	 * Add the given morphs as submorphs of the receiver in front of all existing submorphs (in z-order),
+	 * the last one in front of all. This is the same as adding them one by one, but the submorphs
+	 * are updated once, the change is reported once for all of them and the stepping of the
+	 * whole subtrees is started in a single batch.
+	 * 
+	 * @param morphs the morphs to be added as the receiver submorphs (each one once)
+	 * @throws IllegalArgumentException if some morph is repeated, or it is the receiver or one of its owners
+	 */
+	public void addMorphs(Collection<? extends Morph> morphs) {
+		if (morphs.isEmpty()) return;
+		Set<Morph> added = Collections.newSetFromMap(new IdentityHashMap<Morph, Boolean>());
+		for (Morph morph: morphs) {
+			if (!added.add(morph))
+				throw new IllegalArgumentException("Repeated morph: "+morph);
+		}
+		for (Morph morph = this; morph != null; morph = morph.owner) {
+			if (added.contains(morph))
+				throw new IllegalArgumentException("Can't add a morph to itself or its submorphs: "+morph);
+		}
+		for (Morph morph: morphs)
+			morph.removeFromOwner();
+		MorphList newSubmorphs = submorphs;
+		for (Morph morph: morphs) {
+			morph.owner = this;
+			morph.ownerIndex = newSubmorphs.size();
+			newSubmorphs = newSubmorphs.add(morph);
+		}
+		submorphs = newSubmorphs;
+		submorphsChanged(morphs);
+		WorldMorph world = this instanceof WorldMorph ? (WorldMorph) this : getWorld();
+		if (world != null)
+			world.startStepping(allMorphsIn(morphs));
+	}
+
+	/**
+	 * Remove the given morphs from the submorphs of the receiver, updating the submorphs once and
+	 * reporting the change once for all of them.
+	 * 
+	 * @param morphs the morphs to be removed from the receiver submorphs
+	 * @throws NoSuchElementException if some of the given morphs is not a submorph of the receiver
+	 */
+	public void removeMorphs(Collection<? extends Morph> morphs) {
+		if (morphs.isEmpty()) return;
+		Set<Morph> removed = Collections.newSetFromMap(new IdentityHashMap<Morph, Boolean>());
+		for (Morph morph: morphs) {
+			if (morph.owner != this)
+				throw new NoSuchElementException("No such submorph: "+morph);
+			removed.add(morph);
+		}
+		submorphsChanged(morphs);
+		WorldMorph world = this instanceof WorldMorph ? (WorldMorph) this : getWorld();
+		if (world != null)
+			world.stopStepping(allMorphsIn(morphs));
+		MorphList submorphs = this.submorphs;
+		Morph[] kept = new Morph[submorphs.size() - removed.size()];
+		int i = 0;
+		for (Morph submorph: submorphs) {
+			if (!removed.contains(submorph))
+				kept[i++] = submorph;
+		}
+		for (Morph morph: removed)
+			morph.owner = null;
+		this.submorphs = MorphList.of(kept);
+	}
+
+	/**
+	 * Report the change of the area covered by the given submorphs
+	 */
+	private void submorphsChanged(Collection<? extends Morph> morphs) {
+		float[] box = null;
+		float[] morphBox = new float[4];
+		for (Morph morph: morphs) {
+			Rectangle bounds = morph.getFullBounds();
+			if (bounds == null) {
+				changed();
+				return;
+			}
+			morph.toOuterBox(bounds.toBox(morphBox));
+			if (box == null)
+				box = morphBox.clone();
+			else
+				Rectangle.union(box, morphBox);
+		}
+		changed(Rectangle.fromBox(box));
+	}
+
+	/**
+	 * Return the given morphs and all their submorphs, recursively
+	 */
+	private static List<Morph> allMorphsIn(Collection<? extends Morph> morphs) {
+		List<Morph> all = new ArrayList<Morph>();
+		for (Morph morph: morphs)
+			morph.allMorphsInto(all);
+		return all;
+	}
+
+	private void allMorphsInto(List<Morph> all) {
+		all.add(this);
+		for (Morph submorph: submorphs)
+			submorph.allMorphsInto(all);
+	}
+	
 	/**
 	 * Make a copy of the receiver including copies of all its submorphs.
 	 */
@@ -225,10 +350,12 @@ public abstract class Morph {
 			Morph newMorph = getClass().newInstance();
 			newMorph.transformation = transformation;
 			newMorph.coordinateSystem = coordinateSystem;
+			newMorph.localTransformation = localTransformation;
 			newMorph.owner = null;
-			newMorph.submorphs = new Morph[submorphs.length];
-			for (int i=0; i<submorphs.length; i++)
-				newMorph.submorphs[i] = submorphs[i].clone();
+			Morph[] newSubmorphs = submorphs.toArray();
+			for (int i=0; i<newSubmorphs.length; i++)
+				newSubmorphs[i] = newSubmorphs[i].clone();
+			newMorph.submorphs = MorphList.of(newSubmorphs);
 			return newMorph;
 		} catch (Exception e) {
 			throw new RuntimeException(e);
@@ -280,6 +407,10 @@ public abstract class Morph {
 	public void fullDraw(Canvas canvas) {
 		Transformation outerTransformation = canvas.getTransformation();
 		Transformation innerTransformation = outerTransformation.with(transformation);
+		// draw() gets local coordinates, an affine coordinate system is folded into the canvas transformation
+		Transformation localTransformation = this.localTransformation;
+		Transformation drawTransformation = localTransformation == null || coordinateSystem == CartesianCoordinateSystem.CANONICAL
+				? innerTransformation : outerTransformation.with(localTransformation);
 
 		canvas.setTransformation(innerTransformation);
 
@@ -292,9 +423,11 @@ public abstract class Morph {
 				if (bounds == null || canvas.isVisible(bounds)) {
 					try {
 						if (bounds != null) canvas.setClipping(bounds);//FIXME this looks ugly, breaks antialiasing on the borders
+						canvas.setTransformation(drawTransformation);
 						draw(canvas);
 					} catch (Exception e) {
 						e.printStackTrace();
+						canvas.setTransformation(innerTransformation);
 						drawError(canvas);
 					}
 					canvas.setTransformation(innerTransformation);
@@ -331,6 +464,7 @@ public abstract class Morph {
 	 * @return the local coordinates of the point
 	 */
 	public final Point toLocal(Point canonical) {
+		if (coordinateSystem == CartesianCoordinateSystem.CANONICAL) return canonical;
 		return coordinateSystem.toLocal(canonical);
 	}
 
@@ -341,25 +475,104 @@ public abstract class Morph {
 	 * @return the local coordinates of the point
 	 */
 	public final Point toCanonical(Point local) {
+		if (coordinateSystem == CartesianCoordinateSystem.CANONICAL) return local;
 		return coordinateSystem.toCanonical(local);
 	}
 
+	/**
+	 * Convert points from canonical coordinates to local coordinates, in place.
+	 * 
+	 * @param points a float[] array of alternating x and y canonical coordinates
+	 * @return the given array, now holding local coordinates
+	 */
+	public final float[] toLocal(float[] points) {
+		CoordinateSystem coordinateSystem = this.coordinateSystem;
+		if (coordinateSystem != CartesianCoordinateSystem.CANONICAL)
+			AbstractCoordinateSystem.toLocal(coordinateSystem, points, points, points.length/2);
+		return points;
+	}
+
+	/**
+	 * Convert points from local coordinates to canonical coordinates, in place.
+	 * 
+	 * @param points a float[] array of alternating x and y local coordinates
+	 * @return the given array, now holding canonical coordinates
+	 */
+	public final float[] toCanonical(float[] points) {
+		CoordinateSystem coordinateSystem = this.coordinateSystem;
+		if (coordinateSystem != CartesianCoordinateSystem.CANONICAL)
+			AbstractCoordinateSystem.toCanonical(coordinateSystem, points, points, points.length/2);
+		return points;
+	}
+
 	public final Rectangle toLocal(Rectangle rect) {
 		// WARNING: this might be wrong in some coordinate systems (e.g. polar)
-		Point p0 = toLocal(rect.topLeft());
-		Point p1 = toLocal(rect.topRight());
-		Point p2 = toLocal(rect.bottomLeft());
-		Point p3 = toLocal(rect.bottomRight());
-		return Rectangle.encompassing(new Point[] {p0, p1, p2, p3});
+		if (coordinateSystem == CartesianCoordinateSystem.CANONICAL) return rect;
+		float[] corners = toLocal(corners(rect));
+		return Rectangle.fromBox(Rectangle.encompassing(corners, 0, 4, new float[4]));
 	}
 
 	public final Rectangle toCanonical(Rectangle rect) {
 		// WARNING: this might be wrong in some coordinate systems (e.g. polar)
-		Point p0 = toCanonical(rect.topLeft());
-		Point p1 = toCanonical(rect.topRight());
-		Point p2 = toCanonical(rect.bottomLeft());
-		Point p3 = toCanonical(rect.bottomRight());
-		return Rectangle.encompassing(new Point[] {p0, p1, p2, p3});
+		if (coordinateSystem == CartesianCoordinateSystem.CANONICAL) return rect;
+		float[] corners = toCanonical(corners(rect));
+		return Rectangle.fromBox(Rectangle.encompassing(corners, 0, 4, new float[4]));
+	}
+	
+	private static float[] corners(Rectangle rect) {
+		float right = rect.x + rect.width;
+		float bottom = rect.y + rect.height;
+		return new float[] {rect.x, rect.y, right, rect.y, rect.x, bottom, right, bottom};
+	}
+	
+	/**
+	 * Returns the transformation mapping local coordinates directly to the owner space, i.e. the
+	 * morph transformation composed with the coordinate system, or null if the coordinate system
+	 * is not affine (e.g. polar).
+	 * 
+	 * @see org.squeak.morphic.kernel.AbstractCoordinateSystem#getTransformation()
+	 * 
+	 * @return the transformation from local coordinates to the owner space, or null
+	 */
+	public final Transformation getLocalTransformation() {
+		return localTransformation;
+	}
+
+	/**
+	 * Map a point in local coordinates to the owner space. This is the same as
+	 * <code>toOuter(toCanonical(local))</code>, in one step if the coordinate system is affine.
+	 * 
+	 * @param local the point in local coordinates
+	 * @return the point in the owner space
+	 */
+	public final Point localToOuter(Point local) {
+		Transformation localTransformation = this.localTransformation;
+		return localTransformation != null ? localTransformation.applyTo(local) : toOuter(toCanonical(local));
+	}
+
+	/**
+	 * Map a point in the owner space to local coordinates. This is the same as
+	 * <code>toLocal(toInner(outer))</code>, in one step if the coordinate system is affine.
+	 * 
+	 * @param outer the point in the owner space
+	 * @return the point in local coordinates
+	 */
+	public final Point outerToLocal(Point outer) {
+		Transformation localTransformation = this.localTransformation;
+		return localTransformation != null ? localTransformation.inverse().applyTo(outer) : toLocal(toInner(outer));
+	}
+
+	/**
+	 * Map a point in the space of the given morph (an owner of the receiver, directly or
+	 * indirectly, or the receiver itself) to local coordinates.
+	 * 
+	 * @param point the point in the space of the reference morph
+	 * @param referenceMorph the morph whose space the point is in
+	 * @return the point in local coordinates
+	 */
+	public final Point toLocal(Point point, Morph referenceMorph) {
+		if (referenceMorph == this) return toLocal(point);
+		return outerToLocal(owner == referenceMorph ? point : owner.toInner(point, referenceMorph));
 	}
 	
 	/* mapping between inner and outer space */
@@ -376,16 +589,48 @@ public abstract class Morph {
 
 	public final Point toInner(Point outer, Morph referenceMorph) {
 		if (referenceMorph == this) return outer;
-		outer = owner == referenceMorph ? outer : owner.toInner(outer, referenceMorph);
-		return toInner(outer);
+		float[] point = toInner(new float[] {outer.x, outer.y}, referenceMorph);
+		return new Point(point[0], point[1]);
 	}
 
 	public final Rectangle toInner(Rectangle rect) {
-		Point p0 = toInner(rect.topLeft());
-		Point p1 = toInner(rect.topRight());
-		Point p2 = toInner(rect.bottomLeft());
-		Point p3 = toInner(rect.bottomRight());
-		return Rectangle.encompassing(new Point[] {p0, p1, p2, p3});
+		return transformation.inverse().applyTo(rect);
+	}
+
+	/**
+	 * Map points in the owner space to the receiver space, in place.
+	 * 
+	 * @param points a float[] array of alternating x and y coordinates in the owner space
+	 * @return the given array, now holding coordinates in the receiver space
+	 */
+	public final float[] toInner(float[] points) {
+		return transformation.inverse().applyTo(points, 0, points.length/2);
+	}
+
+	/**
+	 * Map points in the space of the given morph (an owner of the receiver, directly or indirectly)
+	 * to the receiver space, in place.
+	 * 
+	 * @param points a float[] array of alternating x and y coordinates in the space of the reference morph
+	 * @param referenceMorph the morph whose space the points are in
+	 * @return the given array, now holding coordinates in the receiver space
+	 */
+	public final float[] toInner(float[] points, Morph referenceMorph) {
+		if (referenceMorph == this) return points;
+		if (owner != referenceMorph) owner.toInner(points, referenceMorph);
+		return toInner(points);
+	}
+
+	/**
+	 * Map a box in the owner space to the box enclosing it in the receiver space, in place.
+	 * 
+	 * @see Rectangle#toBox(float[])
+	 * 
+	 * @param box a float[] array <code>{left, top, right, bottom}</code>
+	 * @return the given box
+	 */
+	public final float[] toInnerBox(float[] box) {
+		return transformation.inverse().applyToBox(box);
 	}
 
 	/**
@@ -400,16 +645,48 @@ public abstract class Morph {
 
 	public final Point toOuter(Point inner, Morph referenceMorph) {
 		if (referenceMorph == this) return inner;
-		Point outer = toOuter(inner);
-		return owner == referenceMorph ? outer : owner.toOuter(outer, referenceMorph);
+		float[] point = toOuter(new float[] {inner.x, inner.y}, referenceMorph);
+		return new Point(point[0], point[1]);
 	}
 
 	public final Rectangle toOuter(Rectangle rect) {
-		Point p0 = toOuter(rect.topLeft());
-		Point p1 = toOuter(rect.topRight());
-		Point p2 = toOuter(rect.bottomLeft());
-		Point p3 = toOuter(rect.bottomRight());
-		return Rectangle.encompassing(new Point[] {p0, p1, p2, p3});
+		return transformation.applyTo(rect);
+	}
+
+	/**
+	 * Map points in the receiver space to the owner space, in place.
+	 * 
+	 * @param points a float[] array of alternating x and y coordinates in the receiver space
+	 * @return the given array, now holding coordinates in the owner space
+	 */
+	public final float[] toOuter(float[] points) {
+		return transformation.applyTo(points, 0, points.length/2);
+	}
+
+	/**
+	 * Map points in the receiver space to the space of the given morph (an owner of the
+	 * receiver, directly or indirectly), in place.
+	 * 
+	 * @param points a float[] array of alternating x and y coordinates in the receiver space
+	 * @param referenceMorph the morph whose space the points are mapped to
+	 * @return the given array, now holding coordinates in the space of the reference morph
+	 */
+	public final float[] toOuter(float[] points, Morph referenceMorph) {
+		if (referenceMorph == this) return points;
+		toOuter(points);
+		return owner == referenceMorph ? points : owner.toOuter(points, referenceMorph);
+	}
+
+	/**
+	 * Map a box in the receiver space to the box enclosing it in the owner space, in place.
+	 * 
+	 * @see Rectangle#toBox(float[])
+	 * 
+	 * @param box a float[] array <code>{left, top, right, bottom}</code>
+	 * @return the given box
+	 */
+	public final float[] toOuterBox(float[] box) {
+		return transformation.applyToBox(box);
 	}
 
 	/* position in the owner local coordinates */
@@ -460,21 +737,20 @@ public abstract class Morph {
 	 * @return the foremost submorph that contains the given point, or null if none
 	 */
 	public Morph pick(Point point, Morph topMorph) {
+		MorphList submorphs = this.submorphs;
+		int index = indexOfSubmorph(submorphs, topMorph);
+		if (index < 0)
+			throw new NoSuchElementException("No such submorph: "+topMorph);
 		Point canonical = toCanonical(point);
-		for (int i=0; i<submorphs.length; i++) {
-			if (submorphs[i] == topMorph) {
-				// enumerate the submorphs in reverse Z-order, first the foremost:
-				for (int j=i-1; j>=0; j--) {
-					Morph submorph = submorphs[j];
-					Point submorphPoint = submorph.toLocal(submorph.toInner(canonical));
-					Morph morph = submorph.pick(submorphPoint);
-					if (morph != null)
-						return morph;
-				}
-				return null;
-			}
+		// enumerate the submorphs in reverse Z-order, first the foremost:
+		for (int i=index-1; i>=0; i--) {
+			Morph submorph = submorphs.get(i);
+			Point submorphPoint = submorph.outerToLocal(canonical);
+			Morph morph = submorph.pick(submorphPoint);
+			if (morph != null)
+				return morph;
 		}
-		throw new NoSuchElementException("No such submorph: "+topMorph);
+		return null;
 	}
 
 	/**
@@ -484,11 +760,12 @@ public abstract class Morph {
 	 * @return the foremost submorph that contains the given point, or null if none
 	 */
 	public Morph pick(Point point) {
+		MorphList submorphs = this.submorphs;
 		Point canonical = toCanonical(point);
 		// enumerate the submorphs in reverse Z-order, first the foremost:
-		for (int i=submorphs.length-1; i>=0; i--) {
-			Morph submorph = submorphs[i];
-			Point submorphPoint = submorph.toLocal(submorph.toInner(canonical));
+		for (int i=submorphs.size()-1; i>=0; i--) {
+			Morph submorph = submorphs.get(i);
+			Point submorphPoint = submorph.outerToLocal(canonical);
 			Morph morph = submorph.pick(submorphPoint);
 			if (morph != null)
 				return morph;
@@ -521,14 +798,27 @@ public abstract class Morph {
 	}
 
 	/**
-	 * Reports that an area has changed and needs to be redrawn
+	 * Reports that an area has changed and needs to be redrawn. This is final, subclasses that
+	 * handle changes override {@link #changed(float[])}, which every report goes through.
 	 * 
-	 * @param rect the area that has changed and needs to be redrawn (in canonical coordinates within the morph space)
+	 * @param rect the area that has changed and needs to be redrawn (in canonical coordinates within the morph space), or null if it is unbound
 	 */
-	protected void changed(Rectangle rect) {
+	protected final void changed(Rectangle rect) {
+		changed(rect == null ? null : rect.toBox(new float[4]));
+	}
+
+	/**
+	 * Reports that an area has changed and needs to be redrawn. The area is passed up to the owners
+	 * as a box, mapped in place to the space of each one, so no rectangles are allocated on the way.
+	 * 
+	 * @see Rectangle#toBox(float[])
+	 * 
+	 * @param box a float[] array <code>{left, top, right, bottom}</code> in canonical coordinates within the morph space (it is modified), or null if it is unbound
+	 */
+	protected void changed(float[] box) {
 		if (owner != null) {
-			if (rect != null)
-				owner.changed(toOuter(rect));
+			if (box != null)
+				owner.changed(toOuterBox(box));
 			else
 				owner.changed();
 		}
@@ -557,14 +847,30 @@ public abstract class Morph {
 	 * @see #fullDraw(Canvas)
 	 * 
 	 * @return a rectangle covering the bounds of the receiver and the bounds of all submorphs, recursively. or null if it is unbound
+	 *  (unbound submorphs are skipped)
 	 */
 	public final Rectangle getFullBounds() {
-		Rectangle fullBounds = getBounds();
-		if (fullBounds == null) return null;
+		Rectangle bounds = getBounds();
+		if (bounds == null || submorphs.isEmpty()) return bounds;
+		float[] box = bounds.toBox(new float[4]);
+		getFullBounds(box);
+		return Rectangle.fromBox(box);
+	}
+
+	/**
+	 * Compute the full bounds of the receiver in the given box, which must already hold the receiver bounds.
+	 * Unbound submorphs are skipped.
+	 */
+	private void getFullBounds(float[] box) {
+		MorphList submorphs = this.submorphs;
+		if (submorphs.isEmpty()) return;
+		float[] submorphBox = new float[4];
 		for (Morph submorph: submorphs) {
-			fullBounds = fullBounds.union(submorph.toOuter(submorph.getFullBounds()));
+			Rectangle bounds = submorph.getBounds();
+			if (bounds == null) continue; // not bound yet
+			submorph.getFullBounds(bounds.toBox(submorphBox));
+			Rectangle.union(box, submorph.toOuterBox(submorphBox));
 		}
-		return fullBounds;
 	}
 
 	/* transformations */
@@ -597,7 +903,7 @@ public abstract class Morph {
 	 * @param outside an external position in the owner local coordinates
 	 */
 	public final void align(Point inside, Point outside) {
-		translateBy(owner.toCanonical(outside).translatedBackBy(toOuter(toCanonical(inside))));
+		translateBy(owner.toCanonical(outside).translatedBackBy(localToOuter(inside)));
 	}
 
 	/**
@@ -646,13 +952,26 @@ public abstract class Morph {
 	}
 
 	/**
-	 * Set the transformation to the receiver, that defines its space within the space of the owner
-	 * 
+	 * Set the transformation to the receiver, that defines its space within the space of the owner.
+	 * Within a change transaction of the world the change is reported when the transaction ends.
+	 *
+	 * @see WorldMorph#batch(Runnable)
+	 *
 	 * @param transformation the transformation to be set
 	 */
 	public void setTransformation(Transformation transformation) {
+		// look for the world (walking up the owners) only if some world has a transaction open
+		WorldMorph world = ChangeTransaction.isAnyOpen() ? getWorld() : null;
+		ChangeTransaction changes = world == null ? null : world.getTransaction();
+		if (changes != null) {
+			changes.touch(this);
+			this.transformation = transformation;
+			updateLocalTransformation();
+			return;
+		}
 		fullChanged();
 		this.transformation = transformation;
+		updateLocalTransformation();
 		fullChanged();
 	}
 	
@@ -678,6 +997,32 @@ public abstract class Morph {
 	public void step(float dt) {
 		// subclasses can override
 	}
+
+	/**
+	 * Return true if the receiver can be stepped in another thread at the same time as other morphs.
+	 * Such a morph may change only its own state when stepping (and report its changes as usual);
+	 * other morphs can be changed with {@link WorldMorph#invokeLater(Runnable)}.
+	 *
+	 * @see org.squeak.morphic.system.WorldMorph#setParallelStepping(boolean)
+	 * 
+	 * @return true if the receiver can step concurrently with other morphs
+	 */
+	public boolean canStepConcurrently() {
+		return false;
+	}
+
+	/**
+	 * Return true if the receiver only needs to step while some eye can see it. Such a morph is
+	 * suspended by the world when its full bounds are out of the view of every eye (or too small
+	 * to be seen), and stepped again with the time passed as <code>dt</code> when it comes back into view.
+	 *
+	 * @see org.squeak.morphic.system.WorldMorph#isVisible(Morph)
+	 *
+	 * @return true if the receiver steps only when visible
+	 */
+	public boolean stepsOnlyWhenVisible() {
+		return false;
+	}
 	
 	public /*final*/ void startStepping() {
 		WorldMorph world = getWorld();
@@ -0,0 +1,418 @@
+package org.squeak.morphic.kernel;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * <p>An immutable list of morphs, used to hold the submorphs of a morph in Z-order.</p>
+ *
+ * <p>The morphs are kept in a balanced tree of chunks (up to {@link #CHUNK} morphs per leaf,
+ * up to {@link #CHUNK} children per branch). Insertions and removals return a new list that
+ * shares everything but the path to the modified leaf, so they copy <code>O(log n)</code>
+ * chunks instead of the whole list, and appending is effectively constant time. A node left less
+ * than half full by a removal is merged with a sibling, so removals don't leave sparse chunks behind.</p>
+ *
+ * <p>Since a list never changes, it can be read (and iterated) from any thread without
+ * locking, as long as it is published through a <code>volatile</code> field.</p>
+ *
+ * @see org.squeak.morphic.kernel.Morph
+ */
+public final class MorphList implements Iterable<Morph> {
+
+	public static final MorphList EMPTY = new MorphList(new Leaf(new Morph[0]));
+
+	static final int CHUNK = 32;
+
+	private final Node root;
+
+	private MorphList(Node root) {
+		this.root = root;
+	}
+
+	/**
+	 * Return a list with the given morphs, in the same order.
+	 *
+	 * @param morphs the morphs
+	 * @return a list with the given morphs
+	 */
+	public static MorphList of(Morph[] morphs) {
+		return of(morphs, 0, morphs.length);
+	}
+
+	/**
+	 * Return a list with the given range of morphs, in the same order.
+	 *
+	 * @param morphs an array of morphs
+	 * @param offset the index of the first morph
+	 * @param count the number of morphs
+	 * @return a list with the given morphs
+	 */
+	public static MorphList of(Morph[] morphs, int offset, int count) {
+		if (count == 0) return EMPTY;
+		// build the tree bottom up with full chunks
+		Node[] nodes = new Node[(count + CHUNK - 1) / CHUNK];
+		for (int i=0; i<nodes.length; i++) {
+			Morph[] chunk = new Morph[Math.min(CHUNK, count - i*CHUNK)];
+			System.arraycopy(morphs, offset + i*CHUNK, chunk, 0, chunk.length);
+			nodes[i] = new Leaf(chunk);
+		}
+		while (nodes.length > 1) {
+			Node[] parents = new Node[(nodes.length + CHUNK - 1) / CHUNK];
+			for (int i=0; i<parents.length; i++) {
+				Node[] children = new Node[Math.min(CHUNK, nodes.length - i*CHUNK)];
+				System.arraycopy(nodes, i*CHUNK, children, 0, children.length);
+				parents[i] = new Branch(children);
+			}
+			nodes = parents;
+		}
+		return new MorphList(nodes[0]);
+	}
+
+	public int size() {
+		return root.size;
+	}
+
+	public boolean isEmpty() {
+		return root.size == 0;
+	}
+
+	/**
+	 * Return the morph at the given index (in Z-order, 0 is the back).
+	 *
+	 * @throws IndexOutOfBoundsException if the index is out of range
+	 */
+	public Morph get(int index) {
+		if (index < 0 || index >= root.size)
+			throw new IndexOutOfBoundsException("Index: "+index+", size: "+root.size);
+		Node node = root;
+		while (node instanceof Branch) {
+			Branch branch = (Branch) node;
+			int i = branch.childAt(index);
+			index -= branch.offset(i);
+			node = branch.children[i];
+		}
+		return ((Leaf) node).morphs[index];
+	}
+
+	/**
+	 * Return the index of the given morph (compared by identity), or -1 if it's not in the list.
+	 * This is a linear search, see {@link #indexOf(Morph, int)} to find a morph faster.
+	 */
+	public int indexOf(Morph morph) {
+		int index = 0;
+		for (Morph each: this) {
+			if (each == morph) return index;
+			index++;
+		}
+		return -1;
+	}
+
+	/**
+	 * Return the index of the given morph (compared by identity), or -1 if it's not in the list,
+	 * trying the given index first. A right hint (like the index where the morph was added, if the
+	 * morphs behind it didn't change) takes <code>O(log n)</code>, a wrong one falls back to the
+	 * linear search.
+	 *
+	 * @param morph the morph to look for
+	 * @param hint the index where the morph is probably at
+	 */
+	public int indexOf(Morph morph, int hint) {
+		if (hint >= 0 && hint < root.size && get(hint) == morph)
+			return hint;
+		return indexOf(morph);
+	}
+
+	public Morph first() {
+		return get(0);
+	}
+
+	public Morph last() {
+		return get(root.size - 1);
+	}
+
+	/**
+	 * Return a new list with the given morph inserted at the given index.
+	 *
+	 * @throws IndexOutOfBoundsException if the index is out of range
+	 */
+	public MorphList insert(int index, Morph morph) {
+		if (index < 0 || index > root.size)
+			throw new IndexOutOfBoundsException("Index: "+index+", size: "+root.size);
+		Node[] nodes = root.insert(index, morph);
+		return new MorphList(nodes.length == 1 ? nodes[0] : new Branch(nodes));
+	}
+
+	/**
+	 * Return a new list with the given morph added at the end (the front, in Z-order).
+	 */
+	public MorphList add(Morph morph) {
+		return insert(root.size, morph);
+	}
+
+	/**
+	 * Return a new list without the morph at the given index.
+	 *
+	 * @throws IndexOutOfBoundsException if the index is out of range
+	 */
+	public MorphList remove(int index) {
+		if (index < 0 || index >= root.size)
+			throw new IndexOutOfBoundsException("Index: "+index+", size: "+root.size);
+		Node node = root.remove(index);
+		// collapse the root while it has a single child
+		while (node instanceof Branch && ((Branch) node).children.length == 1)
+			node = ((Branch) node).children[0];
+		return node == null ? EMPTY : new MorphList(node);
+	}
+
+	/**
+	 * Return the morphs of the list in a new array.
+	 */
+	public Morph[] toArray() {
+		Morph[] morphs = new Morph[root.size];
+		root.copyTo(morphs, 0);
+		return morphs;
+	}
+
+	/**
+	 * Return an iterator over the morphs in Z-order, from the back to the front.
+	 */
+	public Iterator<Morph> iterator() {
+		return new Iterator<Morph>() {
+			int index = 0;
+			int leafStart = 0;
+			Morph[] leaf = new Morph[0];
+			public boolean hasNext() {
+				return index < root.size;
+			}
+			public Morph next() {
+				if (index >= root.size)
+					throw new NoSuchElementException();
+				if (index - leafStart >= leaf.length) {
+					// find the next leaf, from the root
+					int i = index;
+					Node node = root;
+					while (node instanceof Branch) {
+						Branch branch = (Branch) node;
+						int child = branch.childAt(i);
+						i -= branch.offset(child);
+						node = branch.children[child];
+					}
+					leaf = ((Leaf) node).morphs;
+					leafStart = index - i;
+				}
+				return leaf[index++ - leafStart];
+			}
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/* nodes */
+
+	private static abstract class Node {
+		final int size;
+
+		Node(int size) {
+			this.size = size;
+		}
+
+		/**
+		 * Return the node with the morph inserted, or two nodes if it had to be split
+		 */
+		abstract Node[] insert(int index, Morph morph);
+
+		/**
+		 * Return the node without the morph, or null if it would be empty
+		 */
+		abstract Node remove(int index);
+
+		/**
+		 * Return the number of entries (morphs or children) of the node
+		 */
+		abstract int width();
+
+		/**
+		 * Return the node merged with the given sibling that follows it (at the same depth),
+		 * or two nodes if they don't fit in one
+		 */
+		abstract Node[] merge(Node next);
+
+		abstract void copyTo(Morph[] morphs, int offset);
+	}
+
+	private static final class Leaf extends Node {
+		final Morph[] morphs;
+
+		Leaf(Morph[] morphs) {
+			super(morphs.length);
+			this.morphs = morphs;
+		}
+
+		@Override
+		Node[] insert(int index, Morph morph) {
+			Morph[] newMorphs = new Morph[morphs.length + 1];
+			System.arraycopy(morphs, 0, newMorphs, 0, index);
+			newMorphs[index] = morph;
+			System.arraycopy(morphs, index, newMorphs, index + 1, morphs.length - index);
+			if (newMorphs.length <= CHUNK)
+				return new Node[] {new Leaf(newMorphs)};
+			// keep the left chunk full when appending, split in halves otherwise
+			int split = index == morphs.length ? CHUNK : newMorphs.length / 2;
+			Morph[] left = new Morph[split];
+			Morph[] right = new Morph[newMorphs.length - split];
+			System.arraycopy(newMorphs, 0, left, 0, left.length);
+			System.arraycopy(newMorphs, split, right, 0, right.length);
+			return new Node[] {new Leaf(left), new Leaf(right)};
+		}
+
+		@Override
+		Node remove(int index) {
+			if (morphs.length == 1) return null;
+			Morph[] newMorphs = new Morph[morphs.length - 1];
+			System.arraycopy(morphs, 0, newMorphs, 0, index);
+			System.arraycopy(morphs, index + 1, newMorphs, index, newMorphs.length - index);
+			return new Leaf(newMorphs);
+		}
+
+		@Override
+		int width() {
+			return morphs.length;
+		}
+
+		@Override
+		Node[] merge(Node next) {
+			Morph[] nextMorphs = ((Leaf) next).morphs;
+			Morph[] all = new Morph[morphs.length + nextMorphs.length];
+			System.arraycopy(morphs, 0, all, 0, morphs.length);
+			System.arraycopy(nextMorphs, 0, all, morphs.length, nextMorphs.length);
+			if (all.length <= CHUNK)
+				return new Node[] {new Leaf(all)};
+			Morph[] left = new Morph[all.length / 2];
+			Morph[] right = new Morph[all.length - left.length];
+			System.arraycopy(all, 0, left, 0, left.length);
+			System.arraycopy(all, left.length, right, 0, right.length);
+			return new Node[] {new Leaf(left), new Leaf(right)};
+		}
+
+		@Override
+		void copyTo(Morph[] array, int offset) {
+			System.arraycopy(morphs, 0, array, offset, morphs.length);
+		}
+	}
+
+	private static final class Branch extends Node {
+		final Node[] children;
+		final int[] ends; // ends[i] is the index right after the last morph of children[i]
+
+		Branch(Node[] children) {
+			super(sizeOf(children));
+			this.children = children;
+			this.ends = new int[children.length];
+			int end = 0;
+			for (int i=0; i<children.length; i++) {
+				end += children[i].size;
+				ends[i] = end;
+			}
+		}
+
+		private static int sizeOf(Node[] children) {
+			int size = 0;
+			for (Node child: children)
+				size += child.size;
+			return size;
+		}
+
+		int offset(int child) {
+			return child == 0 ? 0 : ends[child - 1];
+		}
+
+		/**
+		 * Return the child holding the given index (the last child for the index right after the end)
+		 */
+		int childAt(int index) {
+			int low = 0, high = ends.length - 1;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (ends[mid] > index)
+					high = mid;
+				else
+					low = mid + 1;
+			}
+			return low;
+		}
+
+		@Override
+		Node[] insert(int index, Morph morph) {
+			int child = childAt(index);
+			Node[] nodes = children[child].insert(index - offset(child), morph);
+			Node[] newChildren = new Node[children.length + nodes.length - 1];
+			System.arraycopy(children, 0, newChildren, 0, child);
+			System.arraycopy(nodes, 0, newChildren, child, nodes.length);
+			System.arraycopy(children, child + 1, newChildren, child + nodes.length, children.length - child - 1);
+			if (newChildren.length <= CHUNK)
+				return new Node[] {new Branch(newChildren)};
+			int split = child == children.length - 1 ? CHUNK : newChildren.length / 2;
+			Node[] left = new Node[split];
+			Node[] right = new Node[newChildren.length - split];
+			System.arraycopy(newChildren, 0, left, 0, left.length);
+			System.arraycopy(newChildren, split, right, 0, right.length);
+			return new Node[] {new Branch(left), new Branch(right)};
+		}
+
+		@Override
+		Node remove(int index) {
+			int child = childAt(index);
+			Node node = children[child].remove(index - offset(child));
+			if (node == null) {
+				// drop the empty child
+				if (children.length == 1) return null;
+				Node[] newChildren = new Node[children.length - 1];
+				System.arraycopy(children, 0, newChildren, 0, child);
+				System.arraycopy(children, child + 1, newChildren, child, newChildren.length - child);
+				return new Branch(newChildren);
+			}
+			if (node.width() < CHUNK/2 && children.length > 1) {
+				// merge the underfull child with its left sibling (the right one for the first child)
+				int left = child > 0 ? child - 1 : child;
+				Node[] merged = left == child ? node.merge(children[child + 1]) : children[left].merge(node);
+				Node[] newChildren = new Node[children.length - 2 + merged.length];
+				System.arraycopy(children, 0, newChildren, 0, left);
+				System.arraycopy(merged, 0, newChildren, left, merged.length);
+				System.arraycopy(children, left + 2, newChildren, left + merged.length, children.length - left - 2);
+				return new Branch(newChildren);
+			}
+			Node[] newChildren = children.clone();
+			newChildren[child] = node;
+			return new Branch(newChildren);
+		}
+
+		@Override
+		int width() {
+			return children.length;
+		}
+
+		@Override
+		Node[] merge(Node next) {
+			Node[] nextChildren = ((Branch) next).children;
+			Node[] all = new Node[children.length + nextChildren.length];
+			System.arraycopy(children, 0, all, 0, children.length);
+			System.arraycopy(nextChildren, 0, all, children.length, nextChildren.length);
+			if (all.length <= CHUNK)
+				return new Node[] {new Branch(all)};
+			Node[] left = new Node[all.length / 2];
+			Node[] right = new Node[all.length - left.length];
+			System.arraycopy(all, 0, left, 0, left.length);
+			System.arraycopy(all, left.length, right, 0, right.length);
+			return new Node[] {new Branch(left), new Branch(right)};
+		}
+
+		@Override
+		void copyTo(Morph[] morphs, int offset) {
+			for (Node child: children) {
+				child.copyTo(morphs, offset);
+				offset += child.size;
+			}
+		}
+	}
+}
@@ -0,0 +1,191 @@
+package org.squeak.morphic.kernel;
+
+/**
+ * <p>A <code>PreciseTransformation</code> is an affine transformation kept in double precision
+ * relative to a <i>floating origin</i>: it maps <code>x</code> to <code>L(x - o) + t</code>, where
+ * <code>L</code> is the linear part, <code>o</code> is the origin (in the source space) and
+ * <code>t</code> is the image of the origin.</p>
+ *
+ * <p>Composing a precise transformation with ordinary transformations (see {@link #with(Transformation)})
+ * maps the origin down into the inner space instead of accumulating large translations, so
+ * the float elements {@link #m} (the only thing a <code>Canvas</code> sees) are always rounded
+ * from well-conditioned double values. This is what allows an eye to zoom deep into the world
+ * without jitter.</p>
+ *
+ * @see org.squeak.morphic.kernel.Transformation
+ * @see org.squeak.morphic.system.EyeMorph#setDeepZoom(boolean)
+ */
+public class PreciseTransformation extends Transformation {
+
+	private final double l00, l10, l01, l11; // linear part
+	private final double ox, oy; // origin, in the source space
+	private final double tx, ty; // image of the origin
+
+	private PreciseTransformation inverse;
+
+	public PreciseTransformation(double l00, double l10, double l01, double l11, double ox, double oy, double tx, double ty) {
+		super((float)l00, (float)l10, (float)l01, (float)l11,
+				(float)(tx - (l00 * ox + l01 * oy)), (float)(ty - (l10 * ox + l11 * oy)));
+		this.l00 = l00;
+		this.l10 = l10;
+		this.l01 = l01;
+		this.l11 = l11;
+		this.ox = ox;
+		this.oy = oy;
+		this.tx = tx;
+		this.ty = ty;
+	}
+
+	/**
+	 * Return the given transformation as a precise transformation (with its origin at <code>(0,0)</code>).
+	 *
+	 * @param transformation a transformation
+	 * @return the same transformation if it is already precise, or a precise transformation equivalent to it
+	 */
+	public static PreciseTransformation of(Transformation transformation) {
+		if (transformation instanceof PreciseTransformation)
+			return (PreciseTransformation) transformation;
+		float[] m = transformation.m;
+		return new PreciseTransformation(m[0], m[1], m[2], m[3], 0, 0, m[4], m[5]);
+	}
+
+	/**
+	 * Compose an ordinary transformation with a precise one, keeping double precision.
+	 *
+	 * @param outer the transformation applied last
+	 * @param inner the precise transformation applied first
+	 * @return a precise transformation equivalent to <code>outer.with(inner)</code>
+	 */
+	public static PreciseTransformation compose(Transformation outer, PreciseTransformation inner) {
+		float[] m = outer.m;
+		return new PreciseTransformation(
+				m[0] * inner.l00 + m[2] * inner.l10, m[1] * inner.l00 + m[3] * inner.l10,
+				m[0] * inner.l01 + m[2] * inner.l11, m[1] * inner.l01 + m[3] * inner.l11,
+				inner.ox, inner.oy,
+				m[0] * inner.tx + m[2] * inner.ty + m[4], m[1] * inner.tx + m[3] * inner.ty + m[5]);
+	}
+
+	public double getOriginX() {
+		return ox;
+	}
+
+	public double getOriginY() {
+		return oy;
+	}
+
+	/**
+	 * Return an equivalent transformation with the origin moved to the given point (in the source space).
+	 *
+	 * @param x the x coordinate of the new origin
+	 * @param y the y coordinate of the new origin
+	 * @return an equivalent precise transformation with the origin at <code>(x,y)</code>
+	 */
+	public PreciseTransformation rebasedAt(double x, double y) {
+		if (x == ox && y == oy) return this;
+		double dx = x - ox;
+		double dy = y - oy;
+		return new PreciseTransformation(l00, l10, l01, l11, x, y, tx + l00 * dx + l01 * dy, ty + l10 * dx + l11 * dy);
+	}
+
+	@Override
+	public Transformation with(Transformation transformation) {
+		if (transformation.isIdentity()) return this;
+		if (transformation instanceof PreciseTransformation) {
+			PreciseTransformation q = (PreciseTransformation) transformation;
+			double dx = q.tx - ox;
+			double dy = q.ty - oy;
+			return new PreciseTransformation(
+					l00 * q.l00 + l01 * q.l10, l10 * q.l00 + l11 * q.l10,
+					l00 * q.l01 + l01 * q.l11, l10 * q.l01 + l11 * q.l11,
+					q.ox, q.oy,
+					tx + l00 * dx + l01 * dy, ty + l10 * dx + l11 * dy);
+		}
+		float[] u = transformation.m;
+		double u00 = u[0], u10 = u[1], u01 = u[2], u11 = u[3], udx = u[4], udy = u[5];
+		double n00 = l00 * u00 + l01 * u10;
+		double n10 = l10 * u00 + l11 * u10;
+		double n01 = l00 * u01 + l01 * u11;
+		double n11 = l10 * u01 + l11 * u11;
+		double det = u00 * u11 - u10 * u01;
+		if (det == 0) {
+			// degenerate, the origin can't be mapped down so fall back to the inner (0,0)
+			double dx = udx - ox;
+			double dy = udy - oy;
+			return new PreciseTransformation(n00, n10, n01, n11, 0, 0, tx + l00 * dx + l01 * dy, ty + l10 * dx + l11 * dy);
+		}
+		// map the origin down into the inner space, the image of the origin stays the same
+		double dx = ox - udx;
+		double dy = oy - udy;
+		return new PreciseTransformation(n00, n10, n01, n11,
+				(u11 * dx - u01 * dy) / det, (u00 * dy - u10 * dx) / det, tx, ty);
+	}
+
+	@Override
+	public Transformation inverse() {
+		if (inverse == null) {
+			double det = l00 * l11 - l10 * l01;
+			if (det == 0)
+				throw new RuntimeException("Non-invertible transformation "+this);
+			inverse = new PreciseTransformation(l11 / det, -l10 / det, -l01 / det, l00 / det, tx, ty, ox, oy);
+			inverse.inverse = this;
+		}
+		return inverse;
+	}
+
+	@Override
+	public Transformation translatedBy(float dx, float dy) {
+		if (dx == 0 && dy == 0) return this;
+		return new PreciseTransformation(l00, l10, l01, l11, ox, oy, tx + dx, ty + dy);
+	}
+
+	@Override
+	public Transformation scaledBy(float sx, float sy) {
+		return with(Transformation.scale(sx, sy));
+	}
+
+	@Override
+	public Transformation rotatedBy(float theta) {
+		return with(Transformation.rotation(theta));
+	}
+
+	@Override
+	public Point applyTo(float x, float y) {
+		double dx = x - ox;
+		double dy = y - oy;
+		return new Point((float)(l00 * dx + l01 * dy + tx), (float)(l10 * dx + l11 * dy + ty));
+	}
+
+	@Override
+	public float[] applyTo(float[] points, int offset, int count) {
+		int end = (offset+count)*2;
+		for (int i = offset*2; i < end; i+=2) {
+			double dx = points[i] - ox;
+			double dy = points[i+1] - oy;
+			points[i] = (float)(l00 * dx + l01 * dy + tx);
+			points[i+1] = (float)(l10 * dx + l11 * dy + ty);
+		}
+		return points;
+	}
+
+	@Override
+	public float[] applyToBox(float[] box) {
+		// map the center relative to the origin and grow it by the extent of the half size
+		double hw = ((double)box[2] - box[0]) / 2;
+		double hh = ((double)box[3] - box[1]) / 2;
+		double dx = box[0] + hw - ox;
+		double dy = box[1] + hh - oy;
+		double x = l00 * dx + l01 * dy + tx;
+		double y = l10 * dx + l11 * dy + ty;
+		double ex = Math.abs(l00) * hw + Math.abs(l01) * hh;
+		double ey = Math.abs(l10) * hw + Math.abs(l11) * hh;
+		box[0] = (float)(x - ex);
+		box[1] = (float)(y - ey);
+		box[2] = (float)(x + ex);
+		box[3] = (float)(y + ey);
+		return box;
+	}
+
+	public String toString() {
+		return getClass().getSimpleName()+" {" + l00 + "," + l10 + "," + l01 + "," + l11 + "; (" + ox + "," + oy + ") -> (" + tx + "," + ty + ")}";
+	}
+}
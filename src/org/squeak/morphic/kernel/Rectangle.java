@@ -19,14 +19,88 @@ public class Rectangle {
 	public final float height;
 
 	public static Rectangle encompassing(Point[] points) {
-		Point topLeft = points[0];
-		Point bottomRight = topLeft;
+		float left = points[0].x, top = points[0].y;
+		float right = left, bottom = top;
 		for (int i=1; i<points.length; i++) {
 			Point p = points[i];
-			topLeft = topLeft.min(p);
-			bottomRight = bottomRight.max(p);
+			if (p.x < left) left = p.x;
+			if (p.x > right) right = p.x;
+			if (p.y < top) top = p.y;
+			if (p.y > bottom) bottom = p.y;
 		}
-		return new Rectangle(topLeft.x, topLeft.y, bottomRight.x-topLeft.x, bottomRight.y-topLeft.y);
+		return new Rectangle(left, top, right-left, bottom-top);
+	}
+
+	public static Rectangle encompassing(float[] points) {
+		return fromBox(encompassing(points, 0, points.length/2, new float[4]));
+	}
+	
+	/* primitive boxes
+	 * 
+	 * A box is a float[] array {left, top, right, bottom}. Boxes are mutable scratch
+	 * space for computing bounds without allocating rectangles and points.
+	 */
+
+	/**
+	 * Compute the box encompassing the given points.
+	 * 
+	 * @param points a float[] array of alternating x and y coordinates
+	 * @param offset the index of the first point in the array (counted in points, not floats)
+	 * @param count the number of points
+	 * @param box the box where the result is written
+	 * @return the given box
+	 */
+	public static float[] encompassing(float[] points, int offset, int count, float[] box) {
+		int i = offset*2;
+		int end = (offset+count)*2;
+		float left = points[i], top = points[i+1];
+		float right = left, bottom = top;
+		for (i+=2; i<end; i+=2) {
+			float x = points[i];
+			float y = points[i+1];
+			if (x < left) left = x;
+			if (x > right) right = x;
+			if (y < top) top = y;
+			if (y > bottom) bottom = y;
+		}
+		box[0] = left;
+		box[1] = top;
+		box[2] = right;
+		box[3] = bottom;
+		return box;
+	}
+
+	/**
+	 * Grow the first box to include the second one.
+	 * 
+	 * @param box the box to be grown (modified in place)
+	 * @param other the box to be included
+	 * @return the first box
+	 */
+	public static float[] union(float[] box, float[] other) {
+		if (other[0] < box[0]) box[0] = other[0];
+		if (other[1] < box[1]) box[1] = other[1];
+		if (other[2] > box[2]) box[2] = other[2];
+		if (other[3] > box[3]) box[3] = other[3];
+		return box;
+	}
+
+	public static Rectangle fromBox(float[] box) {
+		return new Rectangle(box[0], box[1], box[2]-box[0], box[3]-box[1]);
+	}
+
+	/**
+	 * Write the receiver into the given box.
+	 * 
+	 * @param box a float[4] array where the receiver is written as <code>{left, top, right, bottom}</code>
+	 * @return the given box
+	 */
+	public float[] toBox(float[] box) {
+		box[0] = x;
+		box[1] = y;
+		box[2] = x+width;
+		box[3] = y+height;
+		return box;
 	}
 	
 	public Rectangle(float x, float y, float width, float height) {
@@ -78,11 +152,12 @@ public class Rectangle {
 	}
 
 	public Rectangle union(Rectangle rect) {
-		//TODO optimize to avoid creating rectangles
 		float left = Math.min(x,rect.x);
 		float top = Math.min(y,rect.y);
 		float right = Math.max(x+width, rect.x+rect.width);
 		float bottom = Math.max(y+height, rect.y+rect.height);
+		if (left == x && top == y && right == x+width && bottom == y+height) return this;
+		if (left == rect.x && top == rect.y && right == rect.x+rect.width && bottom == rect.y+rect.height) return rect;
 		return new Rectangle(left, top, right-left, bottom-top);
 	}
 
@@ -23,26 +23,56 @@ package org.squeak.morphic.kernel;
  */
 public class Transformation {
 	
+	/* types, from the most specific to the most general (see getType()) */
+	public static final int TYPE_IDENTITY = 0;
+	public static final int TYPE_TRANSLATION = 1;
+	public static final int TYPE_SCALE_TRANSLATION = 2; // axis-aligned scaling (possibly flipping) plus translation
+	public static final int TYPE_SIMILARITY = 3; // rotation or reflection, homogeneous scaling and translation
+	public static final int TYPE_GENERAL = 4;
+
 	public static final Transformation IDENTITY = new Transformation(1, 0, 0, 1, 0, 0);
 	
 	private static final int M00 = 0, M10 = 1, M01 = 2, M11 = 3, M02 = 4, M12 = 5;
 	private static final int DX = M02, DY = M12;
 	
-	public final float[] m;
+	public final float[] m; // NOTE: must not be modified, the type is computed from the elements on creation
 	
+	private final int type;
+
 	private Transformation inverse;
 
 	
 	public Transformation(float[] elements) {
-		this.m = elements;
+		this(elements, classify(elements));
 	}
 
 	public Transformation(float m00, float m10, float m01, float m11, float dx, float dy) {
 		this(new float[] {m00, m10, m01, m11, dx, dy});
 	}
 	
+	private Transformation(float[] elements, int type) {
+		this.m = elements;
+		this.type = type;
+	}
+
+	private Transformation(float m00, float m10, float m01, float m11, float dx, float dy, int type) {
+		this(new float[] {m00, m10, m01, m11, dx, dy}, type);
+	}
+
+	private static int classify(float[] m) {
+		if (m[M10] == 0 && m[M01] == 0) {
+			if (m[M00] == 1 && m[M11] == 1)
+				return m[DX] == 0 && m[DY] == 0 ? TYPE_IDENTITY : TYPE_TRANSLATION;
+			return TYPE_SCALE_TRANSLATION;
+		}
+		if ((m[M00] == m[M11] && m[M10] == -m[M01]) || (m[M00] == -m[M11] && m[M10] == m[M01]))
+			return TYPE_SIMILARITY;
+		return TYPE_GENERAL;
+	}
+
 	public static Transformation translation(float dx, float dy) {
-		return new Transformation(1, 0, 0, 1, dx, dy);
+		if (dx == 0 && dy == 0) return IDENTITY;
+		return new Transformation(1, 0, 0, 1, dx, dy, TYPE_TRANSLATION);
 	}
 
 	public static Transformation rotation(float theta) {
@@ -69,7 +99,7 @@ public class Transformation {
 	 * @see <a href="http://en.wikipedia.org/wiki/Reflection_through_the_origin">Reflection through the origin (wikipedia)</a>
 	 */
 	public static Transformation reflection() {
-		return new Transformation(-1, 0, 0, -1, 0, 0);
+		return new Transformation(-1, 0, 0, -1, 0, 0, TYPE_SCALE_TRANSLATION);
 	}
 
 	public static Transformation reflection(float theta) {
@@ -78,6 +108,35 @@ public class Transformation {
 		return new Transformation(cos, sin, sin, -cos, 0, 0);
 	}
 
+	/**
+	 * Return the type of the receiver, one of {@link #TYPE_IDENTITY}, {@link #TYPE_TRANSLATION},
+	 * {@link #TYPE_SCALE_TRANSLATION}, {@link #TYPE_SIMILARITY} or {@link #TYPE_GENERAL}.
+	 * 
+	 * <p>Types are ordered from the most specific to the most general, and each type
+	 * includes the previous ones (e.g. a translation is also a similarity).
+	 * Composition, inversion and mapping of points and rectangles take faster paths
+	 * for the more specific types.</p>
+	 * 
+	 * @return the type of the receiver
+	 */
+	public int getType() {
+		return type;
+	}
+
+	public boolean isIdentity() {
+		return type == TYPE_IDENTITY;
+	}
+
+	/**
+	 * Return true if the receiver maps axis-aligned rectangles to axis-aligned rectangles
+	 * (i.e. it is a translation or scaling, possibly flipping the axes, without rotation or shear).
+	 * 
+	 * @return true if the receiver preserves the axes
+	 */
+	public boolean isAxisAligned() {
+		return type <= TYPE_SCALE_TRANSLATION;
+	}
+
 	public float determinant() {
 		return m[M00] * m[M11] - m[M10] * m[M01];
 	}
@@ -91,10 +150,27 @@ public class Transformation {
 	 * @return a new Transformation that is the composition of the receiver with the argument
 	 */
 	public Transformation with(Transformation transformation) {
-		if (this == IDENTITY) return transformation;
-		if (transformation == IDENTITY) return this;
+		if (type == TYPE_IDENTITY) return transformation;
+		if (transformation.type == TYPE_IDENTITY) return this;
+		if (transformation instanceof PreciseTransformation)
+			return PreciseTransformation.compose(this, (PreciseTransformation) transformation);
 		
 		float[] t = transformation.m;
+		if (transformation.type == TYPE_TRANSLATION) {
+			// the translation is mapped by the linear part of the receiver
+			if (type == TYPE_TRANSLATION)
+				return translation(m[DX] + t[DX], m[DY] + t[DY]);
+			if (type == TYPE_SCALE_TRANSLATION)
+				return new Transformation(m[M00], 0, 0, m[M11], m[M00] * t[DX] + m[DX], m[M11] * t[DY] + m[DY], type);
+		} else if (type == TYPE_TRANSLATION) {
+			// the linear part of the argument is kept, only the translation is shifted
+			return new Transformation(t[M00], t[M10], t[M01], t[M11], t[DX] + m[DX], t[DY] + m[DY], transformation.type);
+		}
+		if (type == TYPE_SCALE_TRANSLATION && transformation.type == TYPE_SCALE_TRANSLATION) {
+			return new Transformation(m[M00] * t[M00], 0, 0, m[M11] * t[M11],
+					m[M00] * t[DX] + m[DX], m[M11] * t[DY] + m[DY]);
+		}
+
 		float m0 = m[M00];
 		float m1 = m[M01];
 		float m00 = t[M00] * m0 + t[M10] * m1;
@@ -107,19 +183,45 @@ public class Transformation {
 		float m11 = t[M01] * m0 + t[M11] * m1;
 		float dy = t[DX] * m0 + t[DY] * m1 + m[DY];
 		
+		if (type <= TYPE_SIMILARITY && transformation.type <= TYPE_SIMILARITY) // similarities are closed under composition
+			return new Transformation(m00, m10, m01, m11, dx, dy, TYPE_SIMILARITY);
 		return new Transformation(m00, m10, m01, m11, dx, dy);
 	}
 
 	public Transformation inverse() {
 		if (inverse == null) {
-			float det = determinant();
-			if (Math.abs(det) <= Float.MIN_VALUE) {
+			switch (type) {
+			case TYPE_IDENTITY:
+				return this;
+			case TYPE_TRANSLATION:
+				inverse = new Transformation(1, 0, 0, 1, -m[DX], -m[DY], TYPE_TRANSLATION);
+				break;
+			case TYPE_SCALE_TRANSLATION:
+				if (m[M00] == 0 || m[M11] == 0)
 					throw new RuntimeException("Non-invertible transformation "+this);
-		    }
-			inverse = new Transformation( m[M11] / det, -m[M10] / det,
-					-m[M01] / det,  m[M00] / det,
-					(m[M01] * m[M12] - m[M11] * m[M02]) / det,
-					(m[M10] * m[M02] - m[M00] * m[M12]) / det);
+				float sx = 1 / m[M00];
+				float sy = 1 / m[M11];
+				inverse = new Transformation(sx, 0, 0, sy, -m[DX] * sx, -m[DY] * sy);
+				break;
+			case TYPE_SIMILARITY: {
+				// the inverse of the linear part is its transpose divided by the square of the scale
+				float scale2 = m[M00] * m[M00] + m[M10] * m[M10];
+				if (scale2 <= Float.MIN_VALUE)
+					throw new RuntimeException("Non-invertible transformation "+this);
+				float a = m[M00] / scale2, b = m[M10] / scale2, c = m[M01] / scale2, d = m[M11] / scale2;
+				inverse = new Transformation(a, c, b, d, -(a * m[DX] + b * m[DY]), -(c * m[DX] + d * m[DY]), TYPE_SIMILARITY);
+				break;
+			}
+			default:
+				float det = determinant();
+				if (Math.abs(det) <= Float.MIN_VALUE) {
+						throw new RuntimeException("Non-invertible transformation "+this);
+			    }
+				inverse = new Transformation( m[M11] / det, -m[M10] / det,
+						-m[M01] / det,  m[M00] / det,
+						(m[M01] * m[M12] - m[M11] * m[M02]) / det,
+						(m[M10] * m[M02] - m[M00] * m[M12]) / det);
+			}
 			inverse.inverse = this;
 		}
 		return inverse;
@@ -138,19 +240,31 @@ public class Transformation {
 	}
 
 	public Transformation translatedBy(float dx, float dy) {
-		return new Transformation(m[M00], m[M10], m[M01], m[M11], m[DX]+dx, m[DY]+dy);
+		if (dx == 0 && dy == 0) return this;
+		if (type <= TYPE_TRANSLATION)
+			return translation(m[DX]+dx, m[DY]+dy);
+		return new Transformation(m[M00], m[M10], m[M01], m[M11], m[DX]+dx, m[DY]+dy, type);
 	}
 
 	public Transformation scaledBy(float sx, float sy) {
-		return with(Transformation.scale(sx, sy));
+		if (sx == 1 && sy == 1) return this;
+		if (type <= TYPE_SCALE_TRANSLATION)
+			return new Transformation(m[M00]*sx, 0, 0, m[M11]*sy, m[DX], m[DY]);
+		return new Transformation(m[M00]*sx, m[M10]*sx, m[M01]*sy, m[M11]*sy, m[DX], m[DY]);
 	}
 
 	public Transformation scaledBy(float scalar) {
-		return with(Transformation.scale(scalar, scalar));
+		return scaledBy(scalar, scalar);
 	}
 
 	public Transformation rotatedBy(float theta) {
-		return with(Transformation.rotation(theta));
+		if (theta == 0) return this;
+		float cos = (float) Math.cos(theta);
+		float sin = (float) Math.sin(theta);
+		return new Transformation(
+				m[M00] * cos + m[M01] * sin, m[M10] * cos + m[M11] * sin,
+				m[M01] * cos - m[M00] * sin, m[M11] * cos - m[M10] * sin,
+				m[DX], m[DY]);
 	}
 	
 	public Transformation interpolate(Transformation target, float lambda) {
@@ -161,20 +275,144 @@ public class Transformation {
 	}
 
 	public Point applyTo(Point p) {
+		if (type == TYPE_IDENTITY) return p;
 		return applyTo(p.x, p.y);
 	}
 
 	public Point applyTo(float x, float y) {
-		return new Point(m[M00]*x + m[M01]*y + m[DX], m[M10]*x + m[M11]*y + m[DY]);
+		switch (type) {
+		case TYPE_IDENTITY:
+			return new Point(x, y);
+		case TYPE_TRANSLATION:
+			return new Point(x + m[DX], y + m[DY]);
+		case TYPE_SCALE_TRANSLATION:
+			return new Point(m[M00]*x + m[DX], m[M11]*y + m[DY]);
+		default:
+			return new Point(m[M00]*x + m[M01]*y + m[DX], m[M10]*x + m[M11]*y + m[DY]);
+		}
 	}
 	
 	public void applyTo(float[] points) {
-		for (int i=0; i<points.length; i+=2) {
-			float x = points[i];
-			float y = points[i+1];
-			points[i] = m[M00]*x + m[M01]*y + m[DX];
-			points[i+1] = m[M10]*x + m[M11]*y + m[DY];
+		applyTo(points, 0, points.length/2);
+	}
+
+	/**
+	 * Map some points in place.
+	 * 
+	 * @param points a float[] array of alternating x and y coordinates
+	 * @param offset the index of the first point to be mapped (counted in points, not floats)
+	 * @param count the number of points to be mapped
+	 * @return the given array
+	 */
+	public float[] applyTo(float[] points, int offset, int count) {
+		int end = (offset+count)*2;
+		switch (type) {
+		case TYPE_IDENTITY:
+			break;
+		case TYPE_TRANSLATION: {
+			float dx = m[DX], dy = m[DY];
+			for (int i=offset*2; i<end; i+=2) {
+				points[i] += dx;
+				points[i+1] += dy;
+			}
+			break;
+		}
+		case TYPE_SCALE_TRANSLATION: {
+			float sx = m[M00], sy = m[M11], dx = m[DX], dy = m[DY];
+			for (int i=offset*2; i<end; i+=2) {
+				points[i] = sx*points[i] + dx;
+				points[i+1] = sy*points[i+1] + dy;
+			}
+			break;
+		}
+		default:
+			for (int i=offset*2; i<end; i+=2) {
+				float x = points[i];
+				float y = points[i+1];
+				points[i] = m[M00]*x + m[M01]*y + m[DX];
+				points[i+1] = m[M10]*x + m[M11]*y + m[DY];
+			}
+		}
+		return points;
+	}
+
+	/**
+	 * Map a rectangle, returning the smallest axis-aligned rectangle that encloses the image
+	 * of the given rectangle. For translations and axis-aligned scalings this is exact.
+	 * 
+	 * @param rect the rectangle to be mapped
+	 * @return the bounding box of the rectangle mapped by the receiver
+	 */
+	public Rectangle applyTo(Rectangle rect) {
+		if (type == TYPE_IDENTITY) return rect;
+		if (Float.isInfinite(rect.width) || Float.isInfinite(rect.height))
+			return Rectangle.INFINITE; // the far edges would be NaN
+		return Rectangle.fromBox(applyToBox(rect.toBox(new float[4])));
+	}
+
+	/**
+	 * Map a box in place, replacing it with the smallest box that encloses its image.
+	 * 
+	 * @see Rectangle#toBox(float[])
+	 * 
+	 * @param box a float[] array <code>{left, top, right, bottom}</code>
+	 * @return the given box
+	 */
+	public float[] applyToBox(float[] box) {
+		switch (type) {
+		case TYPE_IDENTITY:
+			break;
+		case TYPE_TRANSLATION:
+			box[0] += m[DX];
+			box[1] += m[DY];
+			box[2] += m[DX];
+			box[3] += m[DY];
+			break;
+		case TYPE_SCALE_TRANSLATION: {
+			float x0 = m[M00]*box[0] + m[DX];
+			float x1 = m[M00]*box[2] + m[DX];
+			float y0 = m[M11]*box[1] + m[DY];
+			float y1 = m[M11]*box[3] + m[DY];
+			box[0] = Math.min(x0, x1);
+			box[1] = Math.min(y0, y1);
+			box[2] = Math.max(x0, x1);
+			box[3] = Math.max(y0, y1);
+			break;
+		}
+		case TYPE_SIMILARITY: {
+			// m11 and m01 are +-m00 and +-m10, so the extent only needs two absolute values
+			float hw = (box[2] - box[0]) / 2;
+			float hh = (box[3] - box[1]) / 2;
+			float cx = box[0] + hw;
+			float cy = box[1] + hh;
+			float a = Math.abs(m[M00]), b = Math.abs(m[M10]);
+			float x = m[M00]*cx + m[M01]*cy + m[DX];
+			float y = m[M10]*cx + m[M11]*cy + m[DY];
+			float ex = a*hw + b*hh;
+			float ey = b*hw + a*hh;
+			box[0] = x - ex;
+			box[1] = y - ey;
+			box[2] = x + ex;
+			box[3] = y + ey;
+			break;
+		}
+		default: {
+			// the image of the center plus the extent of the image of the half-diagonals
+			float hw = (box[2] - box[0]) / 2;
+			float hh = (box[3] - box[1]) / 2;
+			float cx = box[0] + hw;
+			float cy = box[1] + hh;
+			float x = m[M00]*cx + m[M01]*cy + m[DX];
+			float y = m[M10]*cx + m[M11]*cy + m[DY];
+			float ex = Math.abs(m[M00]*hw) + Math.abs(m[M01]*hh);
+			float ey = Math.abs(m[M10]*hw) + Math.abs(m[M11]*hh);
+			box[0] = x - ex;
+			box[1] = y - ey;
+			box[2] = x + ex;
+			box[3] = y + ey;
+		}
 		}
+		return box;
 	}
 
 	public String toString() {
@@ -1,7 +1,8 @@
 package org.squeak.morphic.kernel.coordinates;
 
-import org.squeak.morphic.kernel.CoordinateSystem;
+import org.squeak.morphic.kernel.AbstractCoordinateSystem;
 import org.squeak.morphic.kernel.Point;
+import org.squeak.morphic.kernel.Transformation;
 
 /**
  * <p>A <i>Cartesian coordinate system</i> linearly maps points in the square <code>[-1,1]x[-1,1]</code>
@@ -11,9 +12,12 @@ import org.squeak.morphic.kernel.Point;
  * 
  * @see org.squeak.morphic.kernel.CoordinateSystem
  */
-public class CartesianCoordinateSystem implements CoordinateSystem {
+public class CartesianCoordinateSystem extends AbstractCoordinateSystem {
 	private final float minX, minY, maxX, maxY;
-
+	
+	// canonical = local * scale + offset
+	private final float scaleX, scaleY, offsetX, offsetY;
+	private final Transformation transformation;
 
 	public static final CartesianCoordinateSystem CANONICAL = new CartesianCoordinateSystem(-1.0f, -1.0f, 1.0f, 1.0f);
 
@@ -31,6 +35,11 @@ public class CartesianCoordinateSystem implements CoordinateSystem {
 		this.minY = minY;
 		this.maxX = maxX;
 		this.maxY = maxY;
+		this.scaleX = 2.0f / (maxX - minX);
+		this.scaleY = 2.0f / (maxY - minY);
+		this.offsetX = -minX * scaleX - 1.0f;
+		this.offsetY = -minY * scaleY - 1.0f;
+		this.transformation = new Transformation(scaleX, 0, 0, scaleY, offsetX, offsetY);
 	}
 	
 	public Point toCanonical(Point local) {
@@ -44,4 +53,28 @@ public class CartesianCoordinateSystem implements CoordinateSystem {
 		float y = (canonical.y + 1.0f) * (maxY - minY) / 2.0f + minY;
 		return new Point(x,y);
 	}
+
+	@Override
+	public Transformation getTransformation() {
+		return transformation;
+	}
+
+	@Override
+	public void toCanonical(float[] src, float[] dst, int n) {
+		float scaleX = this.scaleX, scaleY = this.scaleY, offsetX = this.offsetX, offsetY = this.offsetY;
+		for (int i=0; i<n*2; i+=2) {
+			dst[i] = src[i] * scaleX + offsetX;
+			dst[i+1] = src[i+1] * scaleY + offsetY;
+		}
+	}
+
+	@Override
+	public void toLocal(float[] src, float[] dst, int n) {
+		float scaleX = (maxX - minX) / 2.0f, scaleY = (maxY - minY) / 2.0f;
+		float offsetX = minX + scaleX, offsetY = minY + scaleY;
+		for (int i=0; i<n*2; i+=2) {
+			dst[i] = src[i] * scaleX + offsetX;
+			dst[i+1] = src[i+1] * scaleY + offsetY;
+		}
+	}
 }
@@ -1,6 +1,6 @@
 package org.squeak.morphic.kernel.coordinates;
 
-import org.squeak.morphic.kernel.CoordinateSystem;
+import org.squeak.morphic.kernel.AbstractCoordinateSystem;
 import org.squeak.morphic.kernel.Point;
 
 /**
@@ -8,7 +8,7 @@ import org.squeak.morphic.kernel.Point;
  * 
  * @see org.squeak.morphic.kernel.CoordinateSystem
  */
-public class PolarCoordinateSystem implements CoordinateSystem {
+public class PolarCoordinateSystem extends AbstractCoordinateSystem {
 
 	public Point toCanonical(Point local) {
 		return Point.fromPolar(local.x, local.y);
@@ -19,4 +19,24 @@ public class PolarCoordinateSystem implements CoordinateSystem {
 		float theta = canonical.angle();
 		return new Point(r,theta);
 	}
+
+	@Override
+	public void toCanonical(float[] src, float[] dst, int n) {
+		for (int i=0; i<n*2; i+=2) {
+			float r = src[i];
+			double theta = src[i+1];
+			dst[i] = r * (float) Math.cos(theta);
+			dst[i+1] = r * (float) Math.sin(theta);
+		}
+	}
+
+	@Override
+	public void toLocal(float[] src, float[] dst, int n) {
+		for (int i=0; i<n*2; i+=2) {
+			float x = src[i];
+			float y = src[i+1];
+			dst[i] = (float) Math.sqrt(x*x + y*y);
+			dst[i+1] = (float) Math.atan2(y, x);
+		}
+	}
 }
@@ -0,0 +1,29 @@
+package org.squeak.morphic.physics;
+
+/**
+ * A force whose work can be split in parts, to be accumulated in parallel (see {@link Simulation#setParallelForces(int)}).
+ * Each part adds its force to its own buffers, which are summed at the end, so the parts don't share
+ * anything they write.
+ */
+public interface ParallelForce extends Force {
+
+	/**
+	 * Prepare the force to be applied in parts, and return its units of work (for instance a unit per
+	 * particle, or a single unit for a force between two particles). Called before the parts are applied.
+	 *
+	 * @param simulation the simulation the force applies to
+	 * @return the number of units of work
+	 */
+	int prepareParts(Simulation simulation);
+
+	/**
+	 * Add the force of the given units of work to the given buffers, without changing anything else.
+	 *
+	 * @param simulation the simulation the force applies to
+	 * @param from the first unit of work
+	 * @param to the unit of work after the last one
+	 * @param fx the x component of the force, by particle index
+	 * @param fy the y component of the force, by particle index
+	 */
+	void applyTo(Simulation simulation, int from, int to, float[] fx, float[] fy);
+}
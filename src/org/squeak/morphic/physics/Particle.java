@@ -1,34 +1,64 @@
 package org.squeak.morphic.physics;
 
 import org.squeak.morphic.kernel.Morph;
+import org.squeak.morphic.kernel.Point;
 
+/**
+ * A particle of a simulation, that moves a morph. The state of the particle is kept in the arrays
+ * of the simulation, at the index of the particle.
+ *
+ * @see org.squeak.morphic.physics.Simulation
+ */
 public class Particle {
-	public float vx, vy;
-	public float _vx, _vy;
-	public float fx, fy;
-	public float mass = 0.15f;
+	static final float MASS = 0.15f; // default
 
+	public final Simulation simulation;
+	public final int index;
 	public final Morph morph;
-	
-	public Particle(Morph morph) {
+
+	Particle(Simulation simulation, int index, Morph morph) {
+		this.simulation = simulation;
+		this.index = index;
 		this.morph = morph;
 	}
-	
-	public void updatePosition(float dt) {
-		float dt1 = dt/2;
-		float dt2 = dt*dt/2;
-		float ax = fx / mass;
-		float ay = fy / mass;
-		morph.translateBy(vx*dt + ax*dt2, vy*dt + ay*dt2);
-		_vx = vx+ax*dt1;
-		_vy = vy+ay*dt1;
-	}
-	
-	public void updateVelocity(float dt) {
-		float dt1 = dt/2;
-//		float dt2 = dt*dt/2;
-		float ax = dt1 / mass;
-		vx = _vx + fx*ax;
-		vy = _vy + fy*ax;
+
+	public float getMass() {
+		return simulation.mass[index];
+	}
+
+	public void setMass(float mass) {
+		simulation.mass[index] = mass;
+	}
+
+	/**
+	 * Return the position of the particle as of the last step (in the coordinates of the morph owner)
+	 */
+	public Point getPosition() {
+		return new Point(simulation.x[index], simulation.y[index]);
+	}
+
+	public Point getVelocity() {
+		return new Point(simulation.vx[index], simulation.vy[index]);
+	}
+
+	public void setVelocity(float vx, float vy) {
+		simulation.vx[index] = vx;
+		simulation.vy[index] = vy;
+	}
+
+	public Point getForce() {
+		return new Point(simulation.fx[index], simulation.fy[index]);
+	}
+
+	/**
+	 * Return the position between the previous and the current one.
+	 *
+	 * @param alpha 0 for the previous position, 1 for the current one
+	 * @return the interpolated position (in the coordinates of the morph owner)
+	 */
+	public Point getInterpolatedPosition(float alpha) {
+		float x = simulation.x[index], y = simulation.y[index];
+		float previousX = simulation.previousX[index], previousY = simulation.previousY[index];
+		return new Point(previousX + (x - previousX) * alpha, previousY + (y - previousY) * alpha);
 	}
 }
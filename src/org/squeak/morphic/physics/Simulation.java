@@ -1,56 +1,300 @@
 package org.squeak.morphic.physics;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 import org.squeak.morphic.kernel.Morph;
+import org.squeak.morphic.kernel.Point;
+import org.squeak.morphic.kernel.Transformation;
+import org.squeak.morphic.system.WorldMorph;
 import org.squeak.morphic.physics.forces.SpringForce;
 
+/**
+ * <p>A simulation of particles moved by forces.</p>
+ *
+ * <p>The state of the particles is kept in arrays, by the index of each particle: the position
+ * (<code>x</code>, <code>y</code>, in the coordinates of the morph owners), the velocity (<code>vx</code>,
+ * <code>vy</code>), the force (<code>fx</code>, <code>fy</code>) and the <code>mass</code>. The forces
+ * read and write these arrays, from 0 to {@link #size()}, so stepping doesn't touch the morphs: their
+ * positions are read before stepping (only those moved by someone else since the last step) and
+ * the morphs are moved to the new positions after it.</p>
+ *
+ * <p>The forces can be accumulated in parallel (see {@link #setParallelForces(int)}).</p>
+ *
+ * @see org.squeak.morphic.physics.Particle
+ */
 public class Simulation {
-	public final List<Particle> particles = new ArrayList<Particle>();
+	public final List<Particle> particles = new ArrayList<Particle>(); // by index
 	public final List<Force> forces = new ArrayList<Force>();
-	
+
+	/* the state of the particles, by index */
+	public float[] x = new float[16], y = new float[16];
+	public float[] vx = new float[16], vy = new float[16];
+	public float[] fx = new float[16], fy = new float[16];
+	public float[] mass = new float[16];
+
+	/* the integrator state */
+	float[] previousX = new float[16], previousY = new float[16]; // position before the last step, to interpolate
+	private float[] halfVx = new float[16], halfVy = new float[16]; // velocity at half step
+	private float[] syncedX = new float[16], syncedY = new float[16]; // position of the morphs when synchronized
+	private Transformation[] synced = new Transformation[16]; // transformation of the morphs when synchronized
+
+	/* parallel force accumulation */
+	private volatile int parts; // 0 to apply the forces sequentially
+	private float[][] partFx = new float[0][], partFy = new float[0][]; // force buffers, by part
+
+	/**
+	 * Step the simulation: read the positions of the morphs, integrate and move the morphs.
+	 */
 	public void step(float dt) {
-		for (Particle p: particles) { // speed limit
-			float n = p.vx * p.vx + p.vy * p.vy;
-			if (n > 1.0f) {
-				p.vx /= 10*n;
-				p.vy /= 10*n;
+		readPositions();
+		integrate(dt);
+		writePositions();
+	}
+
+	/**
+	 * Read the position of the morphs moved by someone else since the simulation moved them.
+	 */
+	public void readPositions() {
+		int n = size();
+		for (int i=0; i<n; i++) {
+			Morph morph = particles.get(i).morph;
+			if (morph.getTransformation() == synced[i]) continue;
+			Point position = morph.getPosition();
+			if (position == null) continue; // not in a morph yet
+			x[i] = previousX[i] = syncedX[i] = position.x;
+			y[i] = previousY[i] = syncedY[i] = position.y;
+			synced[i] = morph.getTransformation();
+		}
+	}
+
+	/**
+	 * Move the morphs to the position of their particles.
+	 */
+	public void writePositions() {
+		writePositions(1);
+	}
+
+	/**
+	 * Move the morphs to a position between the previous and the current position of their particles.
+	 *
+	 * @see Particle#getInterpolatedPosition(float)
+	 *
+	 * @param alpha 0 for the previous position, 1 for the current one
+	 */
+	public void writePositions(float alpha) {
+		int n = size();
+		for (int i=0; i<n; i++) {
+			float targetX = previousX[i] + (x[i] - previousX[i]) * alpha;
+			float targetY = previousY[i] + (y[i] - previousY[i]) * alpha;
+			float dx = targetX - syncedX[i], dy = targetY - syncedY[i];
+			if (dx == 0 && dy == 0) continue;
+			Morph morph = particles.get(i).morph;
+			morph.translateBy(dx, dy);
+			syncedX[i] = targetX;
+			syncedY[i] = targetY;
+			synced[i] = morph.getTransformation();
+		}
+	}
+
+	/**
+	 * Advance the particles a step of time, without touching the morphs.
+	 */
+	public void integrate(float dt) {
+		int n = size();
+		float[] x = this.x, y = this.y, vx = this.vx, vy = this.vy, fx = this.fx, fy = this.fy, mass = this.mass;
+		for (int i=0; i<n; i++) { // speed limit
+			float v = vx[i] * vx[i] + vy[i] * vy[i];
+			if (v > 1.0f) {
+				vx[i] /= 10*v;
+				vy[i] /= 10*v;
 			}
 		}
-		
-		for (Particle p: particles) {
-			p.updatePosition(dt);
+
+		float dt1 = dt/2;
+		float dt2 = dt*dt/2;
+		for (int i=0; i<n; i++) { // update positions
+			float ax = fx[i] / mass[i];
+			float ay = fy[i] / mass[i];
+			previousX[i] = x[i];
+			previousY[i] = y[i];
+			x[i] += vx[i]*dt + ax*dt2;
+			y[i] += vy[i]*dt + ay*dt2;
+			halfVx[i] = vx[i] + ax*dt1;
+			halfVy[i] = vy[i] + ay*dt1;
 		}
 
-		for (Particle p: particles) {
-			p.fx = p.fy = 0;
+		Arrays.fill(fx, 0, n, 0);
+		Arrays.fill(fy, 0, n, 0);
+
+		if (parts > 1) {
+			applyForcesInParallel(parts);
+		} else {
+			for (Force f: forces) {
+				f.applyTo(this);
+			}
 		}
 
+		for (int i=0; i<n; i++) { // update velocities
+			float a = dt1 / mass[i];
+			vx[i] = halfVx[i] + fx[i]*a;
+			vy[i] = halfVy[i] + fy[i]*a;
+		}
+	}
+
+	/**
+	 * Accumulate the parallel forces in the given number of parts, each one into its own buffers, and sum them.
+	 * The other forces are applied after them, in order.
+	 */
+	private void applyForcesInParallel(int parts) {
+		int n = size();
+		ParallelForce[] parallelForces = new ParallelForce[forces.size()];
+		int[] work = new int[parallelForces.length];
+		int count = 0;
 		for (Force f: forces) {
-			f.applyTo(this);
+			if (f instanceof ParallelForce) {
+				ParallelForce force = (ParallelForce) f;
+				work[count] = force.prepareParts(this);
+				parallelForces[count++] = force;
+			}
 		}
-		
-		for (Particle p: particles) {
-			p.updateVelocity(dt);
+		if (partFx.length != parts || partFx[0].length < x.length) {
+			partFx = new float[parts][x.length];
+			partFy = new float[parts][x.length];
 		}
+
+		final List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>(parts);
+		for (int part=0; part<parts; part++)
+			tasks.add(new ForceAccumulation(parallelForces, work, count, part, parts));
+		WorldMorph.getForkJoinPool().invoke(new RecursiveAction() {
+			private static final long serialVersionUID = 1L;
+			protected void compute() {
+				invokeAll(tasks);
+			}
+		});
+
+		// sum the parts in a fixed order, so the result doesn't depend on the threads
+		for (int part=0; part<parts; part++) {
+			float[] bufferX = partFx[part], bufferY = partFy[part];
+			for (int i=0; i<n; i++) {
+				fx[i] += bufferX[i];
+				fy[i] += bufferY[i];
+			}
+		}
+
+		for (Force f: forces) {
+			if (!(f instanceof ParallelForce))
+				f.applyTo(this);
+		}
+	}
+
+	/**
+	 * A part of the parallel forces: a slice of the work of each force that has at least a unit of work
+	 * per part, and every <i>parts</i>th of the smaller ones (like single springs), starting at this part.
+	 */
+	private class ForceAccumulation extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		final ParallelForce[] forces;
+		final int[] work;
+		final int count, part, parts;
+
+		ForceAccumulation(ParallelForce[] forces, int[] work, int count, int part, int parts) {
+			this.forces = forces;
+			this.work = work;
+			this.count = count;
+			this.part = part;
+			this.parts = parts;
+		}
+
+		@Override
+		protected void compute() {
+			int n = size();
+			float[] bufferX = partFx[part], bufferY = partFy[part];
+			Arrays.fill(bufferX, 0, n, 0);
+			Arrays.fill(bufferY, 0, n, 0);
+			int small = 0;
+			for (int f=0; f<count; f++) {
+				int units = work[f];
+				if (units >= parts) {
+					int from = (int) ((long) units * part / parts);
+					int to = (int) ((long) units * (part+1) / parts);
+					forces[f].applyTo(Simulation.this, from, to, bufferX, bufferY);
+				} else if (small++ % parts == part) {
+					forces[f].applyTo(Simulation.this, 0, units, bufferX, bufferY);
+				}
+			}
+		}
+	}
+
+	/**
+	 * <p>Accumulate the forces in parallel, in the given number of parts. The forces that can be split
+	 * (see {@link ParallelForce}) are split in parts in a fixed way, and each part adds its force into
+	 * its own buffers, which are summed in order; the other forces are applied after them. So the
+	 * result only depends on the number of parts, and runs are reproducible.</p>
+	 *
+	 * <p>It pays off when the forces between all the particles dominate the step, with hundreds of particles.</p>
+	 *
+	 * @param parts the number of parts, usually the number of processors, or 0 to apply the forces sequentially
+	 */
+	public void setParallelForces(int parts) {
+		if (parts < 0)
+			throw new IllegalArgumentException("The number of parts can't be negative");
+		this.parts = parts;
+	}
+
+	/**
+	 * Return the number of parts the forces are accumulated in, 0 if they are applied sequentially
+	 */
+	public int getParallelForces() {
+		return parts;
 	}
-	
+
+	/**
+	 * Return the number of particles
+	 */
+	public int size() {
+		return particles.size();
+	}
+
 	public Particle addParticle(Morph morph) {
 		for (Particle p: particles) {
 			if (p.morph == morph)
 				return p;
 		}
-		Particle p = new Particle(morph);
+		int index = particles.size();
+		if (index == x.length)
+			grow(index * 2);
+		Particle p = new Particle(this, index, morph);
+		mass[index] = Particle.MASS;
 		particles.add(p);
 		return p;
 	}
 
+	private void grow(int capacity) {
+		x = Arrays.copyOf(x, capacity);
+		y = Arrays.copyOf(y, capacity);
+		vx = Arrays.copyOf(vx, capacity);
+		vy = Arrays.copyOf(vy, capacity);
+		fx = Arrays.copyOf(fx, capacity);
+		fy = Arrays.copyOf(fy, capacity);
+		mass = Arrays.copyOf(mass, capacity);
+		previousX = Arrays.copyOf(previousX, capacity);
+		previousY = Arrays.copyOf(previousY, capacity);
+		halfVx = Arrays.copyOf(halfVx, capacity);
+		halfVy = Arrays.copyOf(halfVy, capacity);
+		syncedX = Arrays.copyOf(syncedX, capacity);
+		syncedY = Arrays.copyOf(syncedY, capacity);
+		synced = Arrays.copyOf(synced, capacity);
+	}
+
 	public Force addForce(Force f) {
 		forces.add(f);
 		return f;
 	}
-	
+
 	public SpringForce addSpring(Morph m1, Morph m2) {
 		return (SpringForce) addForce(new SpringForce(addParticle(m1), addParticle(m2)));
 	}
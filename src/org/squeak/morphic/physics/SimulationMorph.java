@@ -2,13 +2,14 @@ package org.squeak.morphic.physics;
 
 import org.squeak.morphic.kernel.Canvas;
 import org.squeak.morphic.kernel.Morph;
-import org.squeak.morphic.kernel.Point;
 import org.squeak.morphic.kernel.Rectangle;
 import org.squeak.morphic.physics.forces.SpringForce;
+import org.squeak.morphic.system.WorldClock;
 
 public class SimulationMorph extends Morph {
 
 	protected final Simulation simulation = new Simulation();
+	protected final WorldClock clock = new WorldClock(0.05f); // fixed time step of the simulation
 	public boolean enforceBounds = false;
 	
 	@Override
@@ -31,24 +32,55 @@ public class SimulationMorph extends Morph {
 		return 0.05f; //50 milliseconds
 	}
 
+	/**
+	 * Step the simulation in fixed steps of time, as many as fit in the time passed (whatever the given dt),
+	 * and move the morphs between the last two states of the simulation, as far as the time left over.
+	 * So the morphs move smoothly even when the world steps this morph out of phase with the clock,
+	 * taking no step of the simulation one time and two the next one.
+	 */
 	@Override
 	public void step(float dt) {
+		int steps = clock.advance();
 		fullChanged();
-		simulation.step(dt);
-		if (enforceBounds)
-			enforceBounds();
+		simulation.readPositions();
+		for (int i=0; i<steps; i++) {
+			simulation.integrate(clock.getStepTime());
+			if (enforceBounds)
+				enforceBounds();
+		}
+		simulation.writePositions(clock.getAlpha()); // once for all the steps
 		fullChanged();
 	}
+
+	/**
+	 * Return how far the current time is between the last two steps of the simulation, from 0 to 1.
+	 * 
+	 * @see Particle#getInterpolatedPosition(float)
+	 */
+	public float getAlpha() {
+		return clock.getAlpha();
+	}
 	
 	private void enforceBounds() {
-		for (Particle p: simulation.particles) {
-			Point position = p.morph.getPosition();
-			if (position.radius() > 1) {
-				p.morph.setPosition(Point.fromPolar(1, position.angle()));
+		float[] x = simulation.x, y = simulation.y;
+		for (int i=0, n=simulation.size(); i<n; i++) {
+			float radius = (float) Math.sqrt(x[i]*x[i] + y[i]*y[i]);
+			if (radius > 1) {
+				x[i] /= radius;
+				y[i] /= radius;
 			}
 		}
 	}
 
+	/**
+	 * Accumulate the forces of the simulation in parallel, in the given number of parts.
+	 * 
+	 * @see Simulation#setParallelForces(int)
+	 */
+	public void setParallelForces(int parts) {
+		simulation.setParallelForces(parts);
+	}
+
 	public Particle addParticle(Morph m) {
 		addMorph(m);
 		return simulation.addParticle(m);
@@ -0,0 +1,289 @@
+package org.squeak.morphic.physics.forces;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.squeak.morphic.kernel.Canvas;
+import org.squeak.morphic.kernel.Morph;
+import org.squeak.morphic.physics.Simulation;
+
+/**
+ * An approximation of the {@link NBodyForce} that takes <code>O(n log n)</code> time instead of
+ * <code>O(n<sup>2</sup>)</code>, using the <i>Barnes-Hut</i> algorithm.
+ *
+ * <p>The particles are put in a quadtree, rebuilt on each step, whose cells keep the total mass and
+ * the center of mass of the particles within. A cell of size <code>s</code> seen from a distance
+ * <code>d</code> acts as a single particle at its center of mass if <code>s/d &lt; theta</code>, otherwise
+ * the force of each of its subcells is added. The smaller the opening angle <code>theta</code>, the more
+ * accurate (and slow) the force: 0 gives the exact force.</p>
+ *
+ * <p>The cutoffs of the force are respected: a cell entirely beyond <code>maxDistance</code> is skipped,
+ * and a cell is only approximated if it is entirely within <code>maxDistance</code> and beyond
+ * <code>minDistance</code>, so the approximation never includes particles that the exact force
+ * would ignore or clamp.</p>
+ *
+ * <p>Run {@link #main(String[])} to see the error and the speed for several values of <code>theta</code>.</p>
+ *
+ * @see <a href="http://en.wikipedia.org/wiki/Barnes%E2%80%93Hut_simulation">Barnes-Hut simulation (wikipedia)</a>
+ */
+public class BarnesHutForce extends NBodyForce {
+
+	private static final int MAX_DEPTH = 32; // coincident particles share a leaf at this depth
+
+	public float theta = 0.5f; // opening angle
+
+	/* the particles, by index (the arrays of the simulation, as of the last build) */
+	private float[] x, y, m;
+	private int[] nextInLeaf = new int[0]; // next particle in the same leaf, or -1
+
+	/* the cells of the quadtree, by index (the root is 0, the children of a cell follow it) */
+	private int cells;
+	private float[] cellX = new float[0], cellY = new float[0], cellSize = new float[0]; // top left corner and size
+	private float[] cellMass = new float[0], massX = new float[0], massY = new float[0]; // center of mass
+	private int[] firstChild = new int[0]; // index of the 4 children, or -1 if a leaf
+	private int[] firstInLeaf = new int[0]; // first particle of a leaf, or -1 if empty
+
+
+	public BarnesHutForce() {
+	}
+
+	public BarnesHutForce(float g, float maxDistance) {
+		super(g, maxDistance);
+	}
+
+	public BarnesHutForce(float g, float maxDistance, float theta) {
+		super(g, maxDistance);
+		this.theta = theta;
+	}
+
+	/**
+	 * Build the quadtree. A unit of work is a particle, whose force is computed walking the tree.
+	 */
+	@Override
+	public int prepareParts(Simulation simulation) {
+		int n = simulation.size();
+		if (n < 2) return 0;
+		x = simulation.x;
+		y = simulation.y;
+		m = simulation.mass;
+		build(n);
+		return n;
+	}
+
+	@Override
+	public void applyTo(Simulation simulation, int from, int to, float[] fx, float[] fy) {
+		int[] stack = new int[3*MAX_DEPTH+4]; // cells to visit, one per part
+		for (int i=from; i<to; i++)
+			accumulate(i, stack, fx, fy);
+	}
+
+	/**
+	 * Build the quadtree of the first n particles
+	 */
+	private void build(int n) {
+		if (nextInLeaf.length < n)
+			nextInLeaf = new int[n];
+		float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+		for (int i=0; i<n; i++) {
+			if (x[i] < minX) minX = x[i];
+			if (y[i] < minY) minY = y[i];
+			if (x[i] > maxX) maxX = x[i];
+			if (y[i] > maxY) maxY = y[i];
+		}
+		float size = Math.max(maxX - minX, maxY - minY);
+		size = size > 0 ? size * 1.001f : 1; // so the particles in the border fall inside
+
+		cells = 0;
+		newCell(minX, minY, size);
+		for (int i=0; i<n; i++)
+			insert(i);
+
+		// children come after their parent, so a backwards pass sums the masses bottom up
+		for (int c=cells-1; c>=0; c--) {
+			float mass = 0, mx = 0, my = 0;
+			int child = firstChild[c];
+			if (child < 0) {
+				for (int i=firstInLeaf[c]; i>=0; i=nextInLeaf[i]) {
+					mass += m[i];
+					mx += m[i] * x[i];
+					my += m[i] * y[i];
+				}
+			} else {
+				for (int k=child; k<child+4; k++) {
+					mass += cellMass[k];
+					mx += massX[k] * cellMass[k];
+					my += massY[k] * cellMass[k];
+				}
+			}
+			cellMass[c] = mass;
+			massX[c] = mass == 0 ? cellX[c] + cellSize[c]/2 : mx / mass;
+			massY[c] = mass == 0 ? cellY[c] + cellSize[c]/2 : my / mass;
+		}
+	}
+
+	private int newCell(float left, float top, float size) {
+		if (cells == cellX.length) {
+			int capacity = Math.max(64, cells * 2);
+			cellX = Arrays.copyOf(cellX, capacity);
+			cellY = Arrays.copyOf(cellY, capacity);
+			cellSize = Arrays.copyOf(cellSize, capacity);
+			cellMass = Arrays.copyOf(cellMass, capacity);
+			massX = Arrays.copyOf(massX, capacity);
+			massY = Arrays.copyOf(massY, capacity);
+			firstChild = Arrays.copyOf(firstChild, capacity);
+			firstInLeaf = Arrays.copyOf(firstInLeaf, capacity);
+		}
+		int c = cells++;
+		cellX[c] = left;
+		cellY[c] = top;
+		cellSize[c] = size;
+		firstChild[c] = -1;
+		firstInLeaf[c] = -1;
+		return c;
+	}
+
+	private void insert(int i) {
+		int c = 0;
+		int depth = 0;
+		while (true) {
+			if (firstChild[c] >= 0) {
+				c = firstChild[c] + quadrant(c, x[i], y[i]);
+				depth++;
+			} else if (firstInLeaf[c] < 0 || depth == MAX_DEPTH) {
+				nextInLeaf[i] = firstInLeaf[c];
+				firstInLeaf[c] = i;
+				return;
+			} else { // split the leaf, which has a single particle
+				float half = cellSize[c] / 2;
+				float left = cellX[c], top = cellY[c];
+				int child = newCell(left, top, half);
+				newCell(left + half, top, half);
+				newCell(left, top + half, half);
+				newCell(left + half, top + half, half);
+				firstChild[c] = child;
+				int other = firstInLeaf[c];
+				firstInLeaf[c] = -1;
+				int k = child + quadrant(c, x[other], y[other]);
+				nextInLeaf[other] = -1;
+				firstInLeaf[k] = other;
+			}
+		}
+	}
+
+	private int quadrant(int c, float px, float py) {
+		float half = cellSize[c] / 2;
+		return (px >= cellX[c] + half ? 1 : 0) + (py >= cellY[c] + half ? 2 : 0);
+	}
+
+	/**
+	 * Add the force on the given particle to forceX and forceY
+	 */
+	private void accumulate(int i, int[] stack, float[] forceX, float[] forceY) {
+		float px = x[i], py = y[i];
+		float k1 = g * m[i];
+		float maxDistance2 = maxDistance * maxDistance;
+		float minDistance2 = minDistance * minDistance;
+		float theta2 = theta * theta;
+		float fx = 0, fy = 0;
+		int top = 0;
+		stack[top++] = 0;
+		while (top > 0) {
+			int c = stack[--top];
+			if (cellMass[c] == 0) continue;
+			float left = cellX[c], upper = cellY[c], size = cellSize[c];
+			// nearest and farthest points of the cell
+			float nx = px < left ? left - px : px > left + size ? px - left - size : 0;
+			float ny = py < upper ? upper - py : py > upper + size ? py - upper - size : 0;
+			float near2 = nx*nx + ny*ny;
+			if (near2 >= maxDistance2) continue;
+			int child = firstChild[c];
+			if (child < 0) {
+				for (int j=firstInLeaf[c]; j>=0; j=nextInLeaf[j]) {
+					if (j == i) continue;
+					float dx = x[j] - px, dy = y[j] - py;
+					float distance = (float) Math.sqrt(dx*dx + dy*dy);
+					if (distance < maxDistance && distance > 0) {
+						float clamped = distance < minDistance ? minDistance : distance;
+						float k = k1 * m[j] / (clamped * clamped * distance);
+						fx += dx * k;
+						fy += dy * k;
+					}
+				}
+				continue;
+			}
+			float farX = Math.max(Math.abs(px - left), Math.abs(px - left - size));
+			float farY = Math.max(Math.abs(py - upper), Math.abs(py - upper - size));
+			float dx = massX[c] - px, dy = massY[c] - py;
+			float d2 = dx*dx + dy*dy;
+			// never approximate a cell holding the particle (near2 is 0), even if minDistance is 0
+			if (farX*farX + farY*farY < maxDistance2 && near2 > 0 && near2 >= minDistance2 && size*size < theta2 * d2) {
+				float distance = (float) Math.sqrt(d2);
+				float k = k1 * cellMass[c] / (d2 * distance);
+				fx += dx * k;
+				fy += dy * k;
+			} else {
+				stack[top++] = child;
+				stack[top++] = child + 1;
+				stack[top++] = child + 2;
+				stack[top++] = child + 3;
+			}
+		}
+		forceX[i] += fx;
+		forceY[i] += fy;
+	}
+
+	/* accuracy */
+
+	/**
+	 * Put particles at random in the unit square, and compare the force of the exact {@link NBodyForce} with
+	 * this one for several values of <code>theta</code>, printing the relative error of all the forces, the
+	 * largest error on a single particle (relative to the mean force, since the net force on some particles
+	 * almost cancels) and the time taken. With <code>theta</code> 0 the force must be exact, and with the
+	 * default <code>theta</code> (0.5) the relative error must be under 5%.
+	 *
+	 * @param args the number of particles (3000 by default)
+	 */
+	public static void main(String[] args) {
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 3000;
+		Simulation simulation = new Simulation();
+		Random random = new Random(0);
+		for (int i=0; i<n; i++) {
+			simulation.addParticle(new Morph() {
+				protected void draw(Canvas canvas) {
+				}
+			});
+			simulation.x[i] = random.nextFloat() * 2 - 1;
+			simulation.y[i] = random.nextFloat() * 2 - 1;
+		}
+		float g = -0.01f, maxDistance = 4; // every pair interacts
+
+		NBodyForce exact = new NBodyForce(g, maxDistance);
+		float[] exactX = new float[n], exactY = new float[n];
+		long start = System.nanoTime();
+		exact.applyTo(simulation, 0, exact.prepareParts(simulation), exactX, exactY);
+		System.out.println("exact: " + (System.nanoTime() - start) / 1000000 + " ms");
+
+		for (float theta: new float[] {0, 0.3f, 0.5f, 0.7f, 1}) {
+			BarnesHutForce force = new BarnesHutForce(g, maxDistance, theta);
+			float[] fx = new float[n], fy = new float[n];
+			start = System.nanoTime();
+			force.applyTo(simulation, 0, force.prepareParts(simulation), fx, fy);
+			long time = System.nanoTime() - start;
+			double error = 0, norm = 0, maxError = 0;
+			for (int i=0; i<n; i++) {
+				double dx = fx[i] - exactX[i], dy = fy[i] - exactY[i];
+				double e = dx*dx + dy*dy;
+				error += e;
+				norm += exactX[i]*(double)exactX[i] + exactY[i]*(double)exactY[i];
+				maxError = Math.max(maxError, e);
+			}
+			maxError = Math.sqrt(maxError / (norm / n));
+			error = Math.sqrt(error / norm);
+			System.out.println("theta " + theta + ": relative error " + (float) error + ", largest " + (float) maxError + ", " + time / 1000000 + " ms");
+			if (theta == 0 && error > 1e-4)
+				throw new IllegalStateException("The force with theta 0 should be exact");
+			if (theta == 0.5f && error > 0.05)
+				throw new IllegalStateException("The relative error with theta 0.5 should be under 0.05");
+		}
+	}
+}
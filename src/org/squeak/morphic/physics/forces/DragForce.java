@@ -1,7 +1,6 @@
 package org.squeak.morphic.physics.forces;
 
 import org.squeak.morphic.physics.Force;
-import org.squeak.morphic.physics.Particle;
 import org.squeak.morphic.physics.Simulation;
 
 /**
@@ -25,9 +24,10 @@ public class DragForce implements Force {
 	public void applyTo(Simulation simulation) {
 		if (factor == 0)
 			return;
-		for (Particle p: simulation.particles) {
-			p.fx -= p.vx*factor;
-			p.fy -= p.vy*factor;
+		float[] fx = simulation.fx, fy = simulation.fy, vx = simulation.vx, vy = simulation.vy;
+		for (int i=0, n=simulation.size(); i<n; i++) {
+			fx[i] -= vx[i]*factor;
+			fy[i] -= vy[i]*factor;
 		}
 	}
 }
@@ -2,16 +2,17 @@ package org.squeak.morphic.physics.forces;
 
 import org.squeak.morphic.kernel.Point;
 import org.squeak.morphic.physics.Force;
-import org.squeak.morphic.physics.Particle;
 import org.squeak.morphic.physics.Simulation;
 
 public class GravityForce implements Force {
 	public Point g = new Point(0, 0.01f);
 
 	public void applyTo(Simulation simulation) {
-		for (Particle p: simulation.particles) {
-			p.fx = p.fx+g.x*p.mass;
-			p.fy = p.fy+g.y*p.mass;
+		float[] fx = simulation.fx, fy = simulation.fy, mass = simulation.mass;
+		float gx = g.x, gy = g.y;
+		for (int i=0, n=simulation.size(); i<n; i++) {
+			fx[i] += gx*mass[i];
+			fy[i] += gy*mass[i];
 		}
 	}
 }
@@ -1,8 +1,6 @@
 package org.squeak.morphic.physics.forces;
 
-import org.squeak.morphic.kernel.Point;
-import org.squeak.morphic.physics.Force;
-import org.squeak.morphic.physics.Particle;
+import org.squeak.morphic.physics.ParallelForce;
 import org.squeak.morphic.physics.Simulation;
 
 /**
@@ -17,7 +15,7 @@ import org.squeak.morphic.physics.Simulation;
  *
  * @see <a href="http://en.wikipedia.org/wiki/Inverse-square_law">Inverse-square law (wikipedia)</a>
  */
-public class NBodyForce implements Force {
+public class NBodyForce implements ParallelForce {
 	public float g = -0.01f;
 	public float maxDistance = 1.0f;
 	public float minDistance = 0.1f;
@@ -31,24 +29,44 @@ public class NBodyForce implements Force {
 	}
 	
 	public void applyTo(Simulation simulation) {
-		for (Particle p1: simulation.particles) {
-			Point pos1 = p1.morph.getPosition();
-			Point force = Point.O;
-			for (Particle p2: simulation.particles) {
-				if (p2 == p1) continue;
-				Point pos2 = p2.morph.getPosition();
-				Point delta = pos2.translatedBackBy(pos1);
-				float distance = delta.norm();
-				if (distance < maxDistance) {
-					Point direction = delta.scaledBy(1.0f / distance);
-					if (distance < minDistance)
-						distance = minDistance;
-					force = force.translatedBy(direction.scaledBy(g * p1.mass * p2.mass / (distance * distance)));
-				}
+		applyTo(simulation, 0, prepareParts(simulation), simulation.fx, simulation.fy);
+	}
+
+	/**
+	 * The force is symmetric, so each pair is visited once: the particle <code>i</code> with the
+	 * ones after it. A unit of work is the first and the last of these rows that are left,
+	 * so all the units have the same work.
+	 */
+	public int prepareParts(Simulation simulation) {
+		return (simulation.size() + 1) / 2;
+	}
+
+	public void applyTo(Simulation simulation, int from, int to, float[] fx, float[] fy) {
+		int n = simulation.size();
+		for (int u=from; u<to; u++) {
+			applyRow(simulation, u, fx, fy);
+			if (n-1-u != u)
+				applyRow(simulation, n-1-u, fx, fy);
+		}
+	}
+
+	private void applyRow(Simulation simulation, int i, float[] fx, float[] fy) {
+		float[] x = simulation.x, y = simulation.y, mass = simulation.mass;
+		int n = simulation.size();
+		float forceX = 0, forceY = 0;
+		for (int j=i+1; j<n; j++) {
+			float dx = x[j] - x[i], dy = y[j] - y[i];
+			float distance = (float) Math.sqrt(dx*dx + dy*dy);
+			if (distance < maxDistance && distance > 0) {
+				float clamped = distance < minDistance ? minDistance : distance;
+				float k = g * mass[i] * mass[j] / (clamped * clamped * distance);
+				forceX += dx * k;
+				forceY += dy * k;
+				fx[j] -= dx * k;
+				fy[j] -= dy * k;
 			}
-			p1.fx += force.x;
-			p1.fy += force.y;
-			//TODO if here we update p2 force too, the second loop can be from the index of p1 + 1 to n, complexity is halved
 		}
+		fx[i] += forceX;
+		fy[i] += forceY;
 	}
 }
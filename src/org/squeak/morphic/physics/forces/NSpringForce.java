@@ -1,11 +1,9 @@
 package org.squeak.morphic.physics.forces;
 
-import org.squeak.morphic.kernel.Point;
-import org.squeak.morphic.physics.Force;
-import org.squeak.morphic.physics.Particle;
+import org.squeak.morphic.physics.ParallelForce;
 import org.squeak.morphic.physics.Simulation;
 
-public class NSpringForce implements Force {
+public class NSpringForce implements ParallelForce {
 	public float tension = 0.1f;
 	public float restLength = 0.5f;
 	public float damping = 0.1f;
@@ -19,31 +17,52 @@ public class NSpringForce implements Force {
 	}
 
 	public void applyTo(Simulation simulation) {
-		for (Particle p1: simulation.particles) {
-			Point pos1 = p1.morph.getPosition();
-			for (Particle p2: simulation.particles) {
-				Point pos2 = p2.morph.getPosition();
-				Point delta = pos1.translatedBackBy(pos2);
-				float distance = delta.norm();
-				if (distance == 0) {
-					delta = new Point(((float)Math.random() - 0.5f) * 0.01f, ((float)Math.random() - 0.5f) * 0.01f);
-					distance = delta.norm();
-				}
-				float dd = distance < restLength ? restLength : distance;
-		
-				float k = tension * (distance - restLength);
-				k += damping * (delta.x * (p1.vx - p2.vx) + delta.y * (p1.vy - p2.vy)) / dd;
-				k /= dd;
-				
-				Point force = delta.scaledBy(-k);
-				
-				p1.fx += force.x;
-				p1.fy += force.y;
-		
-				p2.fx -= force.x;
-				p2.fy -= force.y;
+		applyTo(simulation, 0, prepareParts(simulation), simulation.fx, simulation.fy);
+	}
+
+	/**
+	 * Each pair is visited once and its force doubled, the same as visiting it in both orders: the
+	 * particle <code>i</code> with the ones after it. A unit of work is the first and the last of these
+	 * rows that are left, so all the units have the same work.
+	 */
+	public int prepareParts(Simulation simulation) {
+		return (simulation.size() + 1) / 2;
+	}
+
+	public void applyTo(Simulation simulation, int from, int to, float[] fx, float[] fy) {
+		int n = simulation.size();
+		for (int u=from; u<to; u++) {
+			applyRow(simulation, u, fx, fy);
+			if (n-1-u != u)
+				applyRow(simulation, n-1-u, fx, fy);
+		}
+	}
+
+	private void applyRow(Simulation simulation, int i, float[] fx, float[] fy) {
+		float[] x = simulation.x, y = simulation.y, vx = simulation.vx, vy = simulation.vy;
+		int n = simulation.size();
+		for (int j=i+1; j<n; j++) {
+			float dx = x[i] - x[j], dy = y[i] - y[j];
+			float distance = (float) Math.sqrt(dx*dx + dy*dy);
+			if (distance == 0) {
+				double angle = SpringForce.jitterAngle(i, j);
+				dx = (float) Math.cos(angle) * 0.005f;
+				dy = (float) Math.sin(angle) * 0.005f;
+				distance = (float) Math.sqrt(dx*dx + dy*dy);
 			}
-			//TODO this can be optimized reducing complexity by half, by changing the p2 loop to index of p1 to n
+			float dd = distance < restLength ? restLength : distance;
+	
+			float k = tension * (distance - restLength);
+			k += damping * (dx * (vx[i] - vx[j]) + dy * (vy[i] - vy[j])) / dd;
+			k /= dd;
+			
+			float forceX = -2 * k * dx, forceY = -2 * k * dy;
+			
+			fx[i] += forceX;
+			fy[i] += forceY;
+	
+			fx[j] -= forceX;
+			fy[j] -= forceY;
 		}
 	}
 }
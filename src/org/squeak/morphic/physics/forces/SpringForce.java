@@ -1,7 +1,6 @@
 package org.squeak.morphic.physics.forces;
 
-import org.squeak.morphic.kernel.Point;
-import org.squeak.morphic.physics.Force;
+import org.squeak.morphic.physics.ParallelForce;
 import org.squeak.morphic.physics.Particle;
 import org.squeak.morphic.physics.Simulation;
 
@@ -11,7 +10,7 @@ import org.squeak.morphic.physics.Simulation;
  * 
  * @see <a href="http://en.wikipedia.org/wiki/Hooke's_law">Hooke's law (wikipedia)</a>
  */
-public class SpringForce implements Force {
+public class SpringForce implements ParallelForce {
 	public float tension = 0.1f; // spring constant or rate
 	public float restLength = 0.5f;
 	public float damping = 0.1f;
@@ -23,30 +22,56 @@ public class SpringForce implements Force {
 	}
 	
 	public void applyTo(Simulation simulation) {
-		Point pos1 = p1.morph.getPosition();
-		Point pos2 = p2.morph.getPosition();
-		Point delta = pos1.translatedBackBy(pos2);
-		float distance = delta.norm();
+		applyTo(simulation, 0, 1, simulation.fx, simulation.fy);
+	}
+
+	/**
+	 * A spring is a single unit of work.
+	 */
+	public int prepareParts(Simulation simulation) {
+		return 1;
+	}
+
+	public void applyTo(Simulation simulation, int from, int to, float[] fx, float[] fy) {
+		if (from == to) return;
+		int i = p1.index, j = p2.index;
+		float dx = simulation.x[i] - simulation.x[j];
+		float dy = simulation.y[i] - simulation.y[j];
+		float distance = (float) Math.sqrt(dx*dx + dy*dy);
 		if (distance == 0) {
-			delta = new Point(((float)Math.random() - 0.5f) * 0.01f, ((float)Math.random() - 0.5f) * 0.01f);
-			distance = delta.norm();
+			double angle = jitterAngle(i, j);
+			dx = (float) Math.cos(angle) * 0.005f;
+			dy = (float) Math.sin(angle) * 0.005f;
+			distance = (float) Math.sqrt(dx*dx + dy*dy);
 		}
 
 //		float k = tension * (distance - restLength) / distance;
-//		k += damping * (delta.x * (p1.vx - p2.vx) + delta.y * (p1.vy - p2.vy)) / distance;
+//		k += damping * (dx * (vx1 - vx2) + dy * (vy1 - vy2)) / distance;
 
 		float dd = distance < restLength ? restLength  : distance;
 		
 		float k = tension * (distance - restLength);
-		k += damping * (delta.x * (p1.vx - p2.vx) + delta.y * (p1.vy - p2.vy)) / dd;
+		k += damping * (dx * (simulation.vx[i] - simulation.vx[j]) + dy * (simulation.vy[i] - simulation.vy[j])) / dd;
 		k /= dd;
 		
-		Point force = delta.scaledBy(-k);
+		float forceX = -k * dx, forceY = -k * dy;
 		
-		p1.fx += force.x;
-		p1.fy += force.y;
+		fx[i] += forceX;
+		fy[i] += forceY;
 		
-		p2.fx -= force.x;
-		p2.fy -= force.y;
+		fx[j] -= forceX;
+		fy[j] -= forceY;
+	}
+
+	/**
+	 * Return the direction to pull apart the particles <code>i</code> and <code>j</code> when they are in
+	 * the same place. It only depends on the pair, so the simulation stays reproducible.
+	 */
+	static double jitterAngle(int i, int j) {
+		int h = i * 0x9E3779B9 + j;
+		h ^= h >>> 16;
+		h *= 0x85EBCA6B;
+		h ^= h >>> 13;
+		return h * (Math.PI / (1L << 31));
 	}
 }
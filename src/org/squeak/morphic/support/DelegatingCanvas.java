@@ -18,6 +18,15 @@ public class DelegatingCanvas implements Canvas {
 		this.canvas = canvas;
 	}
 
+	/**
+	 * Return the canvas that this canvas delegates to.
+	 * 
+	 * @return the underlying canvas
+	 */
+	protected Canvas getCanvas() {
+		return canvas;
+	}
+
 	public void drawPoint(Point p) {
 		canvas.drawPoint(convert(p));
 	}
@@ -0,0 +1,49 @@
+package org.squeak.morphic.support;
+
+import java.util.List;
+
+import org.squeak.morphic.kernel.Canvas;
+
+/**
+ * An immutable sequence of drawing commands, recorded by a {@link RecordingCanvas}.
+ *
+ * <p>A display list doesn't refer to the morphs that were drawn, so it can be replayed on
+ * another canvas from any thread, while the morphs keep changing.</p>
+ *
+ * @see org.squeak.morphic.support.RecordingCanvas
+ */
+public final class DisplayList {
+
+	public static final DisplayList EMPTY = new DisplayList(new Command[0]);
+
+	/**
+	 * A recorded call to a canvas
+	 */
+	static abstract class Command {
+		abstract void replay(Canvas canvas);
+	}
+
+	private final Command[] commands;
+
+	private DisplayList(Command[] commands) {
+		this.commands = commands;
+	}
+
+	static DisplayList of(List<Command> commands) {
+		return commands.isEmpty() ? EMPTY : new DisplayList(commands.toArray(new Command[commands.size()]));
+	}
+
+	public int size() {
+		return commands.length;
+	}
+
+	/**
+	 * Draw the recorded commands on the given canvas, in order.
+	 *
+	 * @param canvas the canvas to draw on
+	 */
+	public void replay(Canvas canvas) {
+		for (Command command: commands)
+			command.replay(canvas);
+	}
+}
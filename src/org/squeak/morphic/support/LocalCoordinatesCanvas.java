@@ -1,43 +1,239 @@
 package org.squeak.morphic.support;
 
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.squeak.morphic.kernel.AbstractCoordinateSystem;
 import org.squeak.morphic.kernel.Canvas;
+import org.squeak.morphic.kernel.CoordinateSystem;
 import org.squeak.morphic.kernel.Morph;
 import org.squeak.morphic.kernel.Point;
 import org.squeak.morphic.kernel.Rectangle;
+import org.squeak.morphic.kernel.Transformation;
 
+/**
+ * A canvas that understands positions in the local coordinate system of a morph.
+ *
+ * <p>If the coordinate system is affine {@link Morph#fullDraw(Canvas)} has already folded it into
+ * the canvas transformation and nothing is converted; otherwise every point is converted to
+ * canonical coordinates.</p>
+ *
+ * <p>In non-linear coordinate systems (e.g. polar or hyperbolic) a straight segment in local
+ * coordinates is a curve on the screen. Lines, polylines, polygons and rectangles are then
+ * flattened adaptively, with as many segments as needed to keep the error under
+ * {@link #TOLERANCE} at the current scale of the canvas. Flattened polylines and polygons
+ * are cached per scale bucket (a power of 2), keyed by the identity of the array of
+ * points, so the arrays passed to this canvas should not be modified afterwards.</p>
+ */
 public class LocalCoordinatesCanvas extends DelegatingCanvas {
 
+	/**
+	 * Maximum distance between a curve and the polyline that approximates it,
+	 * in screen units (the viewport is 2 units wide).
+	 */
+	public static float TOLERANCE = 0.002f;
+
+	private static final int MIN_DEPTH = 2, MAX_DEPTH = 12;
+
+	private static final Map<float[], FlattenedPoints> cache = Collections.synchronizedMap(new WeakHashMap<float[], FlattenedPoints>());
+
+	private static class FlattenedPoints {
+		final CoordinateSystem coordinateSystem;
+		final int bucket;
+		final float tolerance;
+		final float[] points;
+
+		FlattenedPoints(CoordinateSystem coordinateSystem, int bucket, float tolerance, float[] points) {
+			this.coordinateSystem = coordinateSystem;
+			this.bucket = bucket;
+			this.tolerance = tolerance;
+			this.points = points;
+		}
+	}
+
 	private final Morph morph;
-	
+	private final Transformation coordinateSystemTransformation;
+
+	private float[] buffer = new float[64];
+	private int size;
+	private final float[] scratch = new float[2];
+
 	public LocalCoordinatesCanvas(Canvas canvas, Morph morph) {
 		super(canvas);
 		this.morph = morph;
+		this.coordinateSystemTransformation = AbstractCoordinateSystem.getTransformation(morph.getCoordinateSystem());
+	}
+
+	@Override
+	public void drawLine(Point p1, Point p2) {
+		if (coordinateSystemTransformation != null) {
+			super.drawLine(p1, p2);
+		} else {
+			getCanvas().drawPolyline(flatten(new float[] {p1.x, p1.y, p2.x, p2.y}, false, getBucket()));
+		}
+	}
+
+	@Override
+	public void drawRectangle(Rectangle rect) {
+		if (coordinateSystemTransformation != null) {
+			super.drawRectangle(rect);
+		} else {
+			drawPolygon(corners(rect));
+		}
+	}
+
+	@Override
+	public void fillRectangle(Rectangle rect) {
+		if (coordinateSystemTransformation != null) {
+			super.fillRectangle(rect);
+		} else {
+			fillPolygon(corners(rect));
+		}
+	}
+
+	@Override
+	public void drawPolyline(float[] points) {
+		if (coordinateSystemTransformation != null) {
+			super.drawPolyline(points);
+		} else {
+			getCanvas().drawPolyline(flattenCached(points, false));
+		}
+	}
+
+	@Override
+	public void drawPolygon(float[] points) {
+		if (coordinateSystemTransformation != null) {
+			super.drawPolygon(points);
+		} else {
+			getCanvas().drawPolygon(flattenCached(points, true));
+		}
+	}
+
+	@Override
+	public void fillPolygon(float[] points) {
+		if (coordinateSystemTransformation != null) {
+			super.fillPolygon(points);
+		} else {
+			getCanvas().fillPolygon(flattenCached(points, true));
+		}
 	}
 
 	@Override
 	protected Rectangle convert(Rectangle rect) {
+		if (coordinateSystemTransformation != null) return rect;
 		return morph.toCanonical(rect);
 	}
 
 	@Override
 	protected Rectangle convertBack(Rectangle rect) {
+		if (coordinateSystemTransformation != null) return rect;
 		return morph.toLocal(rect);
 	}
-	
+
 	@Override
 	protected float[] convert(float[] points) {
+		if (coordinateSystemTransformation != null) return points;
 		float[] canonicalPoints = new float[points.length];
-		for (int i=0; i<points.length; i += 2) {
-			Point local = new Point(points[i], points[i+1]);
-			Point canonical = morph.toCanonical(local);
-			canonicalPoints[i] = canonical.x;
-			canonicalPoints[i+1] = canonical.y;
-		}
-		return canonicalPoints;
+		System.arraycopy(points, 0, canonicalPoints, 0, points.length);
+		return morph.toCanonical(canonicalPoints);
 	}
 
 	@Override
 	protected Point convert(Point point) {
+		if (coordinateSystemTransformation != null) return point;
 		return morph.toCanonical(point);
 	}
+
+	/* flattening */
+
+	private static float[] corners(Rectangle rect) {
+		float right = rect.x + rect.width;
+		float bottom = rect.y + rect.height;
+		return new float[] {rect.x, rect.y, right, rect.y, right, bottom, rect.x, bottom};
+	}
+
+	/**
+	 * The scale bucket of the canvas, the flattening is done for the largest scale in the bucket.
+	 */
+	private int getBucket() {
+		float scale = getScale();
+		if (!(scale > 0)) return Integer.MIN_VALUE;
+		return Math.getExponent(scale);
+	}
+
+	private float[] flattenCached(float[] points, boolean closed) {
+		CoordinateSystem coordinateSystem = morph.getCoordinateSystem();
+		int bucket = getBucket();
+		FlattenedPoints flattened = cache.get(points);
+		if (flattened == null || flattened.coordinateSystem != coordinateSystem || flattened.bucket != bucket || flattened.tolerance != TOLERANCE) {
+			flattened = new FlattenedPoints(coordinateSystem, bucket, TOLERANCE, flatten(points, closed, bucket));
+			cache.put(points, flattened);
+		}
+		return flattened.points;
+	}
+
+	/**
+	 * Convert the given polyline (or polygon) from local coordinates to a polyline in canonical
+	 * coordinates, subdividing each segment as needed.
+	 */
+	private float[] flatten(float[] points, boolean closed, int bucket) {
+		float tolerance = bucket == Integer.MIN_VALUE ? Float.POSITIVE_INFINITY : TOLERANCE / Math.scalb(2.0f, bucket);
+		float tolerance2 = tolerance * tolerance;
+		int n = points.length / 2;
+		size = 0;
+		if (n == 0) return new float[0];
+		float x0 = points[0], y0 = points[1];
+		toCanonical(x0, y0);
+		float cx0 = scratch[0], cy0 = scratch[1];
+		add(cx0, cy0);
+		for (int i=1; i<=(closed ? n : n-1); i++) {
+			int j = (i % n) * 2;
+			float x1 = points[j], y1 = points[j+1];
+			toCanonical(x1, y1);
+			float cx1 = scratch[0], cy1 = scratch[1];
+			subdivide(x0, y0, cx0, cy0, x1, y1, cx1, cy1, 0, tolerance2);
+			if (i < n) add(cx1, cy1); // the polygon closes itself
+			x0 = x1;
+			y0 = y1;
+			cx0 = cx1;
+			cy0 = cy1;
+		}
+		float[] result = new float[size];
+		System.arraycopy(buffer, 0, result, 0, size);
+		return result;
+	}
+
+	/**
+	 * Add the inner points of the curve between the two given points (in local and canonical coordinates)
+	 */
+	private void subdivide(float x0, float y0, float cx0, float cy0, float x1, float y1, float cx1, float cy1, int depth, float tolerance2) {
+		if (depth >= MAX_DEPTH) return;
+		float x = (x0 + x1) / 2;
+		float y = (y0 + y1) / 2;
+		toCanonical(x, y);
+		float cx = scratch[0], cy = scratch[1];
+		float dx = cx - (cx0 + cx1) / 2;
+		float dy = cy - (cy0 + cy1) / 2;
+		if (depth >= MIN_DEPTH && !(dx*dx + dy*dy > tolerance2)) return; // also stops on NaN
+		subdivide(x0, y0, cx0, cy0, x, y, cx, cy, depth+1, tolerance2);
+		add(cx, cy);
+		subdivide(x, y, cx, cy, x1, y1, cx1, cy1, depth+1, tolerance2);
+	}
+
+	private void toCanonical(float x, float y) {
+		scratch[0] = x;
+		scratch[1] = y;
+		AbstractCoordinateSystem.toCanonical(morph.getCoordinateSystem(), scratch, scratch, 1);
+	}
+
+	private void add(float x, float y) {
+		if (size + 2 > buffer.length) {
+			float[] newBuffer = new float[buffer.length * 2];
+			System.arraycopy(buffer, 0, newBuffer, 0, size);
+			buffer = newBuffer;
+		}
+		buffer[size++] = x;
+		buffer[size++] = y;
+	}
 }
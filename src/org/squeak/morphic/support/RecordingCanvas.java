@@ -0,0 +1,251 @@
+package org.squeak.morphic.support;
+
+import java.awt.Image;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.squeak.morphic.kernel.Canvas;
+import org.squeak.morphic.kernel.Color;
+import org.squeak.morphic.kernel.Font;
+import org.squeak.morphic.kernel.Point;
+import org.squeak.morphic.kernel.Rectangle;
+import org.squeak.morphic.kernel.Transformation;
+
+/**
+ * A canvas that records the drawing commands instead of drawing them, to be replayed later
+ * (see {@link DisplayList}).
+ *
+ * <p>The state of the canvas (transformation, clipping, alpha, colors and font) is recorded and
+ * also passed to the underlying canvas, which answers all the queries (visibility, scale, viewport),
+ * so morphs draw exactly as they would on it. Nothing is drawn on the underlying canvas.</p>
+ *
+ * <p>The commands are taken in pieces with {@link #cut()}; each piece starts setting the whole
+ * state of the canvas, so it can be replayed on its own.</p>
+ */
+public class RecordingCanvas extends DelegatingCanvas {
+
+	private List<DisplayList.Command> commands = new ArrayList<DisplayList.Command>();
+
+	/**
+	 * @param canvas a canvas with the geometry of the canvas where the commands will be replayed
+	 */
+	public RecordingCanvas(Canvas canvas) {
+		super(canvas);
+		// set the transformation again, so the clipping is given in its space (AWTCanvas tracks it from then on)
+		canvas.setTransformation(canvas.getTransformation());
+		recordState();
+	}
+
+	/**
+	 * Return the commands recorded since the last cut (or since the canvas was created), and start
+	 * recording a new list.
+	 *
+	 * @return the commands recorded
+	 */
+	public DisplayList cut() {
+		DisplayList list = DisplayList.of(commands);
+		commands = new ArrayList<DisplayList.Command>();
+		recordState();
+		return list;
+	}
+
+	private void recordState() {
+		Canvas canvas = getCanvas();
+		final Transformation transformation = canvas.getTransformation();
+		final Rectangle clipping = canvas.getClipping();
+		final float alpha = canvas.getAlpha();
+		final Color color = canvas.getColor();
+		final Color fillColor = canvas.getFillColor();
+		final Font font = canvas.getFont();
+		commands.add(new DisplayList.Command() {
+			void replay(Canvas canvas) {
+				canvas.setTransformation(transformation);
+				if (clipping != null) canvas.setClipping(clipping);
+				canvas.setAlpha(alpha);
+				canvas.setColor(color);
+				canvas.setFillColor(fillColor);
+				canvas.setFont(font);
+			}
+		});
+	}
+
+	/* drawing, recorded */
+
+	@Override
+	public void drawPoint(final Point p) {
+		commands.add(new DisplayList.Command() {
+			void replay(Canvas canvas) {
+				canvas.drawPoint(p);
+			}
+		});
+	}
+
+	@Override
+	public void drawLine(final Point p1, final Point p2) {
+		commands.add(new DisplayList.Command() {
+			void replay(Canvas canvas) {
+				canvas.drawLine(p1, p2);
+			}
+		});
+	}
+
+	@Override
+	public void drawRectangle(final Rectangle rect) {
+		commands.add(new DisplayList.Command() {
+			void replay(Canvas canvas) {
+				canvas.drawRectangle(rect);
+			}
+		});
+	}
+
+	@Override
+	public void fillRectangle(final Rectangle rect) {
+		commands.add(new DisplayList.Command() {
+			void replay(Canvas canvas) {
+				canvas.fillRectangle(rect);
+			}
+		});
+	}
+
+	@Override
+	public void drawEllipse(final Rectangle rect) {
+		commands.add(new DisplayList.Command() {
+			void replay(Canvas canvas) {
+				canvas.drawEllipse(rect);
+			}
+		});
+	}
+
+	@Override
+	public void fillEllipse(final Rectangle rect) {
+		commands.add(new DisplayList.Command() {
+			void replay(Canvas canvas) {
+				canvas.fillEllipse(rect);
+			}
+		});
+	}
+
+	@Override
+	public void drawPolygon(float[] points) {
+		final float[] copy = points.clone(); // the morph may reuse the array
+		commands.add(new DisplayList.Command() {
+			void replay(Canvas canvas) {
+				canvas.drawPolygon(copy);
+			}
+		});
+	}
+
+	@Override
+	public void fillPolygon(float[] points) {
+		final float[] copy = points.clone();
+		commands.add(new DisplayList.Command() {
+			void replay(Canvas canvas) {
+				canvas.fillPolygon(copy);
+			}
+		});
+	}
+
+	@Override
+	public void drawPolyline(float[] points) {
+		final float[] copy = points.clone();
+		commands.add(new DisplayList.Command() {
+			void replay(Canvas canvas) {
+				canvas.drawPolyline(copy);
+			}
+		});
+	}
+
+	@Override
+	public void drawText(final String text, final Point p) {
+		commands.add(new DisplayList.Command() {
+			void replay(Canvas canvas) {
+				canvas.drawText(text, p);
+			}
+		});
+	}
+
+	@Override
+	public void drawImage(final Image image, final Rectangle destRect) {
+		commands.add(new DisplayList.Command() {
+			void replay(Canvas canvas) {
+				canvas.drawImage(image, destRect);
+			}
+		});
+	}
+
+	@Override
+	public void drawImage(final Image image, final Rectangle srcRect, final Rectangle destRect) {
+		commands.add(new DisplayList.Command() {
+			void replay(Canvas canvas) {
+				canvas.drawImage(image, srcRect, destRect);
+			}
+		});
+	}
+
+	/* state, recorded and passed to the underlying canvas */
+
+	@Override
+	public void setAlpha(final float alpha) {
+		super.setAlpha(alpha);
+		commands.add(new DisplayList.Command() {
+			void replay(Canvas canvas) {
+				canvas.setAlpha(alpha);
+			}
+		});
+	}
+
+	@Override
+	public void setColor(final Color color) {
+		super.setColor(color);
+		commands.add(new DisplayList.Command() {
+			void replay(Canvas canvas) {
+				canvas.setColor(color);
+			}
+		});
+	}
+
+	@Override
+	public Color getColor() {
+		return getCanvas().getColor();
+	}
+
+	@Override
+	public void setFillColor(final Color color) {
+		super.setFillColor(color);
+		commands.add(new DisplayList.Command() {
+			void replay(Canvas canvas) {
+				canvas.setFillColor(color);
+			}
+		});
+	}
+
+	@Override
+	public void setFont(final Font font) {
+		super.setFont(font);
+		commands.add(new DisplayList.Command() {
+			void replay(Canvas canvas) {
+				canvas.setFont(font);
+			}
+		});
+	}
+
+	@Override
+	public void setTransformation(final Transformation transformation) {
+		super.setTransformation(transformation);
+		commands.add(new DisplayList.Command() {
+			void replay(Canvas canvas) {
+				canvas.setTransformation(transformation);
+			}
+		});
+	}
+
+	@Override
+	public void setClipping(final Rectangle rect) {
+		super.setClipping(rect);
+		commands.add(new DisplayList.Command() {
+			void replay(Canvas canvas) {
+				canvas.setClipping(rect);
+			}
+		});
+	}
+}
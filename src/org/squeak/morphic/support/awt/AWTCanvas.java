@@ -91,11 +91,7 @@ public class AWTCanvas implements Canvas {
 		int nPoints = points.length / 2;
 		int[] xPoints = new int[nPoints];
 		int[] yPoints = new int[nPoints];
-		for (int i=0; i<nPoints; i++) {
-			Point p = toIntegers(new Point(points[i*2], points[i*2+1]));
-			xPoints[i] = (int) p.x;
-			yPoints[i] = (int) p.y;
-		}
+		toIntegers(points, xPoints, yPoints);
 		graphics.drawPolyline(xPoints, yPoints, nPoints);
 	}
 
@@ -193,8 +189,17 @@ public class AWTCanvas implements Canvas {
 	}
 
 	public boolean isVisible(Rectangle rect) {
-		rect = toIntegers(rect);
-		return rect.width >= 1 && rect.height >= 1 && rect.intersects(clippingArea);
+		// same as toIntegers(rect) intersecting the clipping area, without allocating rectangles
+		float w = rect.width*width;
+		float h = rect.height*height;
+		if (w < 1 || h < 1) return false;
+		if (clippingArea == null) return true;
+		if (Float.isInfinite(w) || Float.isInfinite(h)) // the far edges of an infinite rectangle are NaN, intersection() takes the other one
+			return toIntegers(rect).intersects(clippingArea);
+		float x0 = rect.x*width;
+		float y0 = rect.y*height;
+		return x0 < clippingArea.x+clippingArea.width && clippingArea.x < x0+w
+			&& y0 < clippingArea.y+clippingArea.height && clippingArea.y < y0+h;
 	}
 
 	public float getScale() {
@@ -208,8 +213,7 @@ public class AWTCanvas implements Canvas {
 		float y0 = -1f;
 		float x1 = x0+2;
 		float y1 = y0+2;
-		Transformation s = transformation.inverse();
-		return Rectangle.encompassing(new Point[] {s.applyTo(x0,y0), s.applyTo(x1,y0), s.applyTo(x0,y1), s.applyTo(x1,y1)});
+		return transformation.inverse().applyTo(new Rectangle(x0, y0, x1-x0, y1-y0));
 	}
 	
 	/* converting */
@@ -218,39 +222,29 @@ public class AWTCanvas implements Canvas {
 		return new Point(p.x*width, p.y*height);
 	}
 	
-	private Point toLocal(Point p) {
-		return /*transformation.inverse().applyTo(*/new Point(p.x/width, p.y/height);
-	}
-
 	private Rectangle toLocal(Rectangle rect) {
-		Point p0 = toLocal(rect.topLeft());
-		Point p1 = toLocal(rect.topRight());
-		Point p2 = toLocal(rect.bottomLeft());
-		Point p3 = toLocal(rect.bottomRight());
-		return Rectangle.encompassing(new Point[] {p0, p1, p2, p3});
+		return new Rectangle(rect.x/width, rect.y/height, rect.width/width, rect.height/height);
 	}
 
 	private Rectangle toIntegers(Rectangle rect) {
-		//TODO optimize
-		Point p0 = toIntegers(rect.topLeft());
-		Point p1 = toIntegers(rect.topRight());
-		Point p2 = toIntegers(rect.bottomLeft());
-		Point p3 = toIntegers(rect.bottomRight());
-		return Rectangle.encompassing(new Point[] {p0, p1, p2, p3});
+		// width and height are positive, so this is an axis-aligned scaling
+		return new Rectangle(rect.x*width, rect.y*height, rect.width*width, rect.height*height);
 	}
 	
 	private Polygon toIntegersPolygon(float[] points) {
-		//TODO optimize
 		int nPoints = points.length / 2;
 		int[] xPoints = new int[nPoints];
 		int[] yPoints = new int[nPoints];
-		for (int i=0; i<nPoints; i++) {
-			Point p = toIntegers(new Point(points[i*2], points[i*2+1]));
-			xPoints[i] = (int) p.x;
-			yPoints[i] = (int) p.y;
-		}
+		toIntegers(points, xPoints, yPoints);
 		return new Polygon(xPoints, yPoints, nPoints);
 	}
+
+	private void toIntegers(float[] points, int[] xPoints, int[] yPoints) {
+		for (int i=0, j=0; j<xPoints.length; i+=2, j++) {
+			xPoints[j] = (int) (points[i]*width);
+			yPoints[j] = (int) (points[i+1]*height);
+		}
+	}
 	
 	private Color convert(java.awt.Color color) {
 		return new Color(color.getRed(), color.getGreen(), color.getBlue());
@@ -265,6 +259,10 @@ public class AWTCanvas implements Canvas {
 		return new java.awt.Font(font.name, font.style, (int) fontSize);
 	}
 	
+	/**
+	 * Release the graphics, the canvas can't be used afterwards
+	 */
 	public void dispose() {
+		graphics.dispose();
 	}
 }
@@ -11,12 +11,20 @@ import java.awt.event.MouseEvent;
 import java.awt.event.MouseWheelEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.locks.LockSupport;
 
+import org.squeak.morphic.kernel.Canvas;
 import org.squeak.morphic.kernel.Point;
+import org.squeak.morphic.kernel.events.Event;
+import org.squeak.morphic.kernel.events.MouseMoveEvent;
 import org.squeak.morphic.system.EyeMorph;
 import org.squeak.morphic.system.HandMorph;
+import org.squeak.morphic.system.RenderSnapshot;
+import org.squeak.morphic.system.RenderTarget;
 import org.squeak.morphic.system.WorldMorph;
 import org.squeak.morphic.system.hands.EditingHandMorph;
 import org.squeak.morphic.system.hands.NavigationHandMorph;
@@ -32,8 +40,60 @@ public class MorphicWindow extends Frame {
 	private volatile HandMorph hand;
 	
 	private volatile Image buffer = null;
+	private RenderSnapshot renderedSnapshot; // the snapshot in the buffer
+	private final Object bufferLock = new Object();
 
-	private Thread redrawingThread;
+	private volatile Thread redrawingThread;
+
+	private final BufferedImage geometryImage = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+
+	/* the eye records snapshots against a canvas of the size of the window, in the world stepping thread */
+	private final RenderTarget renderTarget = new RenderTarget() {
+		public int getWidth() {
+			return getExtent();
+		}
+		public int getHeight() {
+			return getExtent();
+		}
+		public Canvas newCanvas() {
+			int w = getExtent();
+			AWTCanvas canvas = new AWTCanvas(geometryImage.createGraphics(), 0, 0, w, w);
+			canvas.setAlpha(1.0f);
+			return canvas;
+		}
+		public void disposeCanvas(Canvas canvas) {
+			((AWTCanvas) canvas).dispose();
+		}
+	};
+
+	private final Runnable publishSnapshot = new Runnable() {
+		public void run() {
+			eye.publishSnapshot();
+		}
+	};
+
+	/**
+	 * An event (or an action) waiting to be dispatched in the world thread
+	 */
+	private static class Input {
+		final Event event;
+		final int x, y; // position of a mouse event in the window
+		final Runnable action;
+		Input(Event event, int x, int y, Runnable action) {
+			this.event = event;
+			this.x = x;
+			this.y = y;
+			this.action = action;
+		}
+	}
+
+	private final List<Input> pendingInput = new ArrayList<Input>();
+
+	private final Runnable processInput = new Runnable() {
+		public void run() {
+			processInput();
+		}
+	};
 	
 	public MorphicWindow() {
 		addWindowListener(new WindowAdapter() {
@@ -75,16 +135,10 @@ public class MorphicWindow extends Frame {
 			private void dispatchMorphicEvent(org.squeak.morphic.kernel.events.MouseEvent morphicEvent, MouseEvent event) {
 				morphicEvent.button = event.getButton();
 				morphicEvent.stateMask = event.getModifiers();
-				morphicEvent.position = toWorld(event.getX(), event.getY());
-//				System.out.println("event position "+event.getX()+","+event.getY()+"; to world "+morphicEvent.position.x+","+morphicEvent.position.y);
+//				System.out.println("event position "+event.getX()+","+event.getY());
 //				System.out.println("button "+morphicEvent.button);
 //				System.out.println("stateMask "+morphicEvent.stateMask);
-				try {
-					hand.dispatchEvent(morphicEvent);
-				} catch (Exception ex) {
-					ex.printStackTrace();
-				}
-				processChangedArea();
+				post(new Input(morphicEvent, event.getX(), event.getY(), null));
 			}
 		};
 		addMouseListener(mouseListener);
@@ -99,11 +153,25 @@ public class MorphicWindow extends Frame {
 			public void keyReleased(KeyEvent event) {
 				if (event.isAltDown()) {
 					if (event.getKeyChar() == 'h')
-						switchHand();
+						post(new Input(null, 0, 0, new Runnable() {
+							public void run() {
+								switchHand();
+							}
+						}));
 					else if (event.getKeyChar() == 'e')
-						switchEye();
+						post(new Input(null, 0, 0, new Runnable() {
+							public void run() {
+								switchEye();
+							}
+						}));
 					else if (event.getKeyChar() == 's')
 						switchStepping();
+					else if (event.getKeyChar() == 'z')
+						post(new Input(null, 0, 0, new Runnable() {
+							public void run() {
+								switchDeepZoom();
+							}
+						}));
 				}
 				dispatchMorphicEvent(new org.squeak.morphic.kernel.events.KeyUpEvent(), event);
 			}
@@ -111,12 +179,7 @@ public class MorphicWindow extends Frame {
 				morphicEvent.stateMask = event.getModifiers();
 				morphicEvent.character = event.getKeyChar();
 				morphicEvent.keyCode = event.getKeyCode();
-				try {
-					hand.dispatchEvent(morphicEvent);
-				} catch (Exception ex) {
-					ex.printStackTrace();
-				}
-				processChangedArea();
+				post(new Input(morphicEvent, 0, 0, null));
 			}
 		});
 	}
@@ -134,6 +197,7 @@ public class MorphicWindow extends Frame {
 		hand = new NavigationHandMorph(eye);
 		world.addMorph(hand);
 		world.addMorph(eye);
+		eye.setRenderTarget(renderTarget);
 		
 /*		Morph sticky = new RectangleMorph();
 		eye.addMorph(sticky);
@@ -144,28 +208,115 @@ public class MorphicWindow extends Frame {
 
 		redrawingThread = new Thread(new Runnable() {
 			public void run() {
-				while (true) { //isValid()) {
+				while (!Thread.currentThread().isInterrupted()) { //isValid()) {
 					processChangedArea();
-					try {
-						Thread.sleep(1000 / FPS);
-					} catch (InterruptedException e) {
-						Thread.currentThread().interrupt();
-					}
+					// woken up early when input produces a new snapshot
+					LockSupport.parkNanos(1000000000L / FPS);
 				}
 			}
 		});
 		redrawingThread.start();
 }
 
+	/**
+	 * Draw the last snapshot published by the eye, if it's new. It doesn't need the world lock,
+	 * so the world keeps stepping meanwhile.
+	 */
 	private void processChangedArea() {
-		synchronized(world) {
-			org.squeak.morphic.kernel.Rectangle changedArea = eye.getChangedArea();
-			if (changedArea != null) {
-				repaintBuffer(); // TODO: clip
-				float screenExtent = Math.max(getWidth(),getHeight());
-				repaint((int)((changedArea.x+1.0f)/2.0f*screenExtent/*+rect.x*/), (int)((changedArea.y+1.0f)/2.0f*screenExtent/*+rect.y*/), (int)(changedArea.width*screenExtent), (int)(changedArea.height*screenExtent));
+		RenderSnapshot snapshot = eye.getSnapshot();
+		org.squeak.morphic.kernel.Rectangle changedArea;
+		synchronized(bufferLock) {
+			if (snapshot == null || snapshot == renderedSnapshot) return;
+			// if some snapshot was skipped its changes are unknown, redraw everything
+			changedArea = snapshot.follows(renderedSnapshot) ? snapshot.getChangedArea() : snapshot.getBounds();
+			renderedSnapshot = snapshot;
+			repaintBuffer(); // TODO: clip
+		}
+		float screenExtent = getExtent();
+		repaint((int)((changedArea.x+1.0f)/2.0f*screenExtent/*+rect.x*/), (int)((changedArea.y+1.0f)/2.0f*screenExtent/*+rect.y*/), (int)(changedArea.width*screenExtent), (int)(changedArea.height*screenExtent));
+	}
+
+	/**
+	 * Queue input for the world thread. Consecutive mouse moves are coalesced, only the latest
+	 * position is dispatched.
+	 */
+	private void post(Input input) {
+		synchronized(pendingInput) {
+			int last = pendingInput.size() - 1;
+			if (last >= 0 && isMove(input.event) && isMove(pendingInput.get(last).event)
+					&& input.event.stateMask == pendingInput.get(last).event.stateMask) {
+				pendingInput.set(last, input);
+				return;
 			}
+			pendingInput.add(input);
+			if (last >= 0) return; // the batch is already waiting for the world
 		}
+		inWorld(processInput);
+	}
+
+	private static boolean isMove(Event event) {
+		return event instanceof MouseMoveEvent;
+	}
+
+	/**
+	 * Dispatch the input waiting in the world thread, and publish a single snapshot for all of it.
+	 * The input is dispatched in a change transaction, so the hand and the morphs it drags report
+	 * the area they cover once for all the events.
+	 */
+	private void processInput() {
+		List<Input> batch;
+		synchronized(pendingInput) {
+			batch = new ArrayList<Input>(pendingInput);
+			pendingInput.clear();
+		}
+		world.beginChanges();
+		try {
+			for (Input input: batch) {
+				try {
+					if (input.action != null) {
+						input.action.run();
+					} else if (input.event instanceof org.squeak.morphic.kernel.events.MouseEvent) {
+						org.squeak.morphic.kernel.events.MouseEvent event = (org.squeak.morphic.kernel.events.MouseEvent) input.event;
+						event.position = toWorld(input.x, input.y);
+						hand.dispatchEvent(event);
+					} else {
+						hand.dispatchEvent((org.squeak.morphic.kernel.events.KeyEvent) input.event);
+					}
+				} catch (Exception ex) {
+					ex.printStackTrace();
+				}
+			}
+		} finally {
+			world.endChanges();
+		}
+		eye.publishSnapshot();
+		Thread thread = redrawingThread;
+		if (thread != null)
+			LockSupport.unpark(thread);
+	}
+
+	/**
+	 * Get a new snapshot of the world, after a change of the window
+	 */
+	private void requestSnapshot() {
+		inWorld(publishSnapshot);
+	}
+
+	/**
+	 * Run the given action in the world thread, or right now holding the world lock if the world isn't stepping
+	 */
+	private void inWorld(Runnable action) {
+		if (world.isStepping()) {
+			world.invokeLater(action);
+		} else {
+			synchronized(world) {
+				action.run();
+			}
+		}
+	}
+
+	private int getExtent() {
+		return Math.max(getWidth(),getHeight());
 	}
 
 	@Override
@@ -203,13 +354,14 @@ public class MorphicWindow extends Frame {
 		List<EyeMorph> eyes = world.getEyes();
 		Iterator<EyeMorph> iterator = eyes.iterator();
 		while (iterator.hasNext() && iterator.next() != eye) ;
+		eye.setRenderTarget(null);
 		if (iterator.hasNext()) {
 			eye = iterator.next();
 		} else {
 			eye = eyes.get(0);
 		}
 		System.out.println("set eye: "+eye);
-		eye.invalidate(eye.getBounds());
+		eye.setRenderTarget(renderTarget);
 	}
 	
 	private void switchStepping() {
@@ -220,6 +372,11 @@ public class MorphicWindow extends Frame {
 		}
 	}
 
+	private void switchDeepZoom() {
+		eye.setDeepZoom(!eye.isDeepZoom());
+		System.out.println("deep zoom: "+eye.isDeepZoom());
+	}
+
 	@Override
 	public void paint(Graphics g) {
 		update(g);
@@ -228,20 +385,21 @@ public class MorphicWindow extends Frame {
 	@Override
 	public void update(Graphics g) {
 		if (buffer == null || buffer.getWidth(null) != getWidth() || buffer.getHeight(null) != getHeight()) {
-			buffer = createImage(getWidth(), getHeight());
-			repaintBuffer();
+			synchronized(bufferLock) {
+				buffer = createImage(getWidth(), getHeight());
+				repaintBuffer();
+			}
+			requestSnapshot(); // for the new size
 		}
 		g.drawImage(buffer, 0, 0, this);
 	}
 
 	private void repaintBuffer() {
-		if (buffer == null) return;
-		int w = (int) (Math.max(getWidth(),getHeight()));
+		if (buffer == null || renderedSnapshot == null) return;
+		int w = getExtent();
 		AWTCanvas canvas = new AWTCanvas((Graphics2D) buffer.getGraphics(), 0, 0, w, w);
 		canvas.setAlpha(1.0f);
-		synchronized(world) {
-			eye.drawWorld(canvas);
-		}
+		renderedSnapshot.replay(canvas);
 		canvas.dispose();
 	}
 	
@@ -0,0 +1,105 @@
+package org.squeak.morphic.system;
+
+import java.util.List;
+
+import org.squeak.morphic.system.WorldMorph.ActivitySchedule;
+
+/**
+ * An activity queue kept in a binary heap where each schedule knows its slot, so that
+ * adding, removing and rescheduling are <code>O(log n)</code>. This is the default,
+ * good for any mix of step times.
+ */
+final class ActivityHeap extends ActivityQueue {
+
+	private ActivitySchedule[] heap = new ActivitySchedule[16];
+	private int size;
+
+	@Override
+	long nextTime() {
+		return size == 0 ? Long.MAX_VALUE : heap[0].time;
+	}
+
+	@Override
+	void pollDue(long time, List<ActivitySchedule> due) {
+		while (size > 0 && heap[0].time <= time) {
+			ActivitySchedule schedule = heap[0];
+			delete(schedule);
+			due.add(schedule);
+		}
+	}
+
+	@Override
+	void reschedule(ActivitySchedule schedule, long time) {
+		if (schedule.index < 0) {
+			super.reschedule(schedule, time);
+			return;
+		}
+		long oldTime = schedule.time;
+		schedule.time = time;
+		if (time < oldTime)
+			siftUp(schedule.index);
+		else
+			siftDown(schedule.index);
+	}
+
+	@Override
+	protected void insert(ActivitySchedule schedule) {
+		if (size == heap.length) {
+			ActivitySchedule[] newHeap = new ActivitySchedule[size * 2];
+			System.arraycopy(heap, 0, newHeap, 0, size);
+			heap = newHeap;
+		}
+		heap[size] = schedule;
+		schedule.index = size;
+		size++;
+		siftUp(schedule.index);
+	}
+
+	@Override
+	protected void delete(ActivitySchedule schedule) {
+		int index = schedule.index;
+		if (index < 0) return;
+		schedule.index = -1;
+		size--;
+		if (index != size) {
+			ActivitySchedule last = heap[size];
+			heap[index] = last;
+			last.index = index;
+			siftDown(index);
+			if (heap[index] == last)
+				siftUp(index);
+		}
+		heap[size] = null;
+	}
+
+	private void siftUp(int index) {
+		ActivitySchedule schedule = heap[index];
+		while (index > 0) {
+			int parent = (index - 1) >>> 1;
+			ActivitySchedule parentSchedule = heap[parent];
+			if (parentSchedule.time <= schedule.time) break;
+			heap[index] = parentSchedule;
+			parentSchedule.index = index;
+			index = parent;
+		}
+		heap[index] = schedule;
+		schedule.index = index;
+	}
+
+	private void siftDown(int index) {
+		ActivitySchedule schedule = heap[index];
+		int half = size >>> 1;
+		while (index < half) {
+			int child = 2 * index + 1;
+			int right = child + 1;
+			if (right < size && heap[right].time < heap[child].time)
+				child = right;
+			if (schedule.time <= heap[child].time) break;
+			heap[index] = heap[child];
+			heap[index].index = index;
+			index = child;
+		}
+		heap[index] = schedule;
+		schedule.index = index;
+	}
+}
@@ -0,0 +1,101 @@
+package org.squeak.morphic.system;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.squeak.morphic.system.WorldMorph.ActivitySchedule;
+
+/**
+ * The activities of a world, ordered by the time of their next step.
+ *
+ * <p>Every schedule is indexed by its key (see {@link ActivitySchedule#key}), so finding a schedule
+ * (and detecting duplicates) is <code>O(1)</code>. Subclasses keep the schedules in a timeline.</p>
+ *
+ * <p>The schedules due are taken out of the timeline in bulk (see {@link #pollDue(long, List)}),
+ * but they stay in the queue until they are rescheduled or removed, so an activity can be stopped
+ * (or started again) while it's stepping.</p>
+ *
+ * @see org.squeak.morphic.system.ActivityHeap
+ * @see org.squeak.morphic.system.ActivityTimingWheel
+ */
+abstract class ActivityQueue {
+
+	private final Map<Object, ActivitySchedule> schedules = new IdentityHashMap<Object, ActivitySchedule>();
+
+	int size() {
+		return schedules.size();
+	}
+
+	/**
+	 * Return the schedule with the given key, or null if there is none
+	 */
+	ActivitySchedule get(Object key) {
+		return schedules.get(key);
+	}
+
+	boolean contains(Object key) {
+		return schedules.containsKey(key);
+	}
+
+	/**
+	 * Return all the schedules in the queue, in no particular order
+	 */
+	List<ActivitySchedule> getSchedules() {
+		return new ArrayList<ActivitySchedule>(schedules.values());
+	}
+
+	/**
+	 * Add the given schedule, unless there is already one with the same key.
+	 *
+	 * @return true if the schedule was added
+	 */
+	boolean add(ActivitySchedule schedule) {
+		if (schedules.containsKey(schedule.key)) return false;
+		schedules.put(schedule.key, schedule);
+		insert(schedule);
+		return true;
+	}
+
+	/**
+	 * Remove the schedule with the given key.
+	 *
+	 * @return the removed schedule, or null if there was none
+	 */
+	ActivitySchedule remove(Object key) {
+		ActivitySchedule schedule = schedules.remove(key);
+		if (schedule != null)
+			delete(schedule);
+		return schedule;
+	}
+
+	/**
+	 * Change the time of the given schedule, which must be in the queue (and may have been polled)
+	 */
+	void reschedule(ActivitySchedule schedule, long time) {
+		delete(schedule);
+		schedule.time = time;
+		insert(schedule);
+	}
+
+	/**
+	 * Return the time of the next step (or an earlier time), or <code>Long.MAX_VALUE</code> if there is nothing to step
+	 */
+	abstract long nextTime();
+
+	/**
+	 * Take the schedules due at the given time out of the timeline, adding them to the given list
+	 */
+	abstract void pollDue(long time, List<ActivitySchedule> due);
+
+	/**
+	 * Add the schedule to the timeline
+	 */
+	protected abstract void insert(ActivitySchedule schedule);
+
+	/**
+	 * Remove the schedule from the timeline, if it's there
+	 */
+	protected abstract void delete(ActivitySchedule schedule);
+}
@@ -0,0 +1,306 @@
+package org.squeak.morphic.system;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+
+import org.squeak.morphic.system.WorldMorph.ActivitySchedule;
+
+/**
+ * <p>An activity queue kept in a hierarchical timing wheel with a resolution of one millisecond.</p>
+ *
+ * <p>The first wheel has a slot for each of the next 256 milliseconds, each of the next wheels has
+ * 64 slots covering 64 times the span of the previous wheel (up to about 18 hours, later schedules
+ * wait in the last slot). A schedule goes into the slot of its time in the finest wheel that can hold
+ * it, and is moved down (<i>cascaded</i>) to the finer wheel when the time reaches its slot.</p>
+ *
+ * <p>Each slot is a doubly linked list, so adding, removing and rescheduling are <code>O(1)</code>,
+ * and all the schedules due in a tick are taken at once. It pays off when there are many activities
+ * stepping with a few periods, since a heap has to reorder every one of them on every step.</p>
+ *
+ * <p>Run {@link #main(String[])} to check it against the heap (see {@link #check(int, long)}) and to
+ * compare it with the heap and with the <code>PriorityQueue</code> the world used before.</p>
+ */
+final class ActivityTimingWheel extends ActivityQueue {
+
+	private static final int ROOT_BITS = 8, LEVEL_BITS = 6, LEVELS = 4;
+	private static final int ROOT_MASK = (1 << ROOT_BITS) - 1, LEVEL_MASK = (1 << LEVEL_BITS) - 1;
+	private static final long MAX_DELAY = (1L << (ROOT_BITS + (LEVELS - 1) * LEVEL_BITS)) - 1;
+
+	private final ActivitySchedule[][] wheels = new ActivitySchedule[LEVELS][];
+	private final ActivitySchedule overdue = new ActivitySchedule(); // schedules added after their time
+	private long current; // the next tick to be processed
+	private int count; // schedules in the wheels
+
+	ActivityTimingWheel(long time) {
+		for (int level=0; level<LEVELS; level++) {
+			ActivitySchedule[] slots = new ActivitySchedule[level == 0 ? 1 << ROOT_BITS : 1 << LEVEL_BITS];
+			for (int i=0; i<slots.length; i++)
+				slots[i] = new ActivitySchedule();
+			wheels[level] = slots;
+		}
+		current = time;
+	}
+
+	@Override
+	long nextTime() {
+		if (count == 0) return Long.MAX_VALUE;
+		if (overdue.next != overdue) return current - 1;
+		if ((current & ROOT_MASK) == 0) {
+			// the cascade at this tick hasn't run yet, any schedule it brings down may be due now
+			for (int level=1; level<LEVELS; level++) {
+				int index = (int)(current >> (ROOT_BITS + (level - 1) * LEVEL_BITS)) & LEVEL_MASK;
+				ActivitySchedule slot = wheels[level][index];
+				if (slot.next != slot) return current;
+				if (index != 0) break;
+			}
+		}
+		// look in the first wheel until the next cascade, which may bring more schedules
+		ActivitySchedule[] slots = wheels[0];
+		for (long time = current; ; time++) {
+			ActivitySchedule slot = slots[(int)(time & ROOT_MASK)];
+			if (slot.next != slot) return time;
+			if (((time + 1) & ROOT_MASK) == 0) return time + 1;
+		}
+	}
+
+	@Override
+	void pollDue(long time, List<ActivitySchedule> due) {
+		take(overdue, due);
+		while (current <= time) {
+			if (count == 0) {
+				current = time + 1;
+				return;
+			}
+			int index = (int)(current & ROOT_MASK);
+			if (index == 0) {
+				for (int level=1; level<LEVELS; level++) {
+					int slot = (int)(current >> (ROOT_BITS + (level - 1) * LEVEL_BITS)) & LEVEL_MASK;
+					cascade(wheels[level][slot]);
+					if (slot != 0) break;
+				}
+			}
+			take(wheels[0][index], due);
+			current++;
+		}
+	}
+
+	private void take(ActivitySchedule slot, List<ActivitySchedule> due) {
+		while (slot.next != slot) {
+			ActivitySchedule schedule = slot.next;
+			delete(schedule);
+			due.add(schedule);
+		}
+	}
+
+	/**
+	 * Move the schedules in the given slot to the finer wheels
+	 */
+	private void cascade(ActivitySchedule slot) {
+		while (slot.next != slot) {
+			ActivitySchedule schedule = slot.next;
+			delete(schedule);
+			insert(schedule);
+		}
+	}
+
+	@Override
+	protected void insert(ActivitySchedule schedule) {
+		long time = schedule.time;
+		long delay = time - current;
+		ActivitySchedule slot;
+		if (delay < 0) {
+			slot = overdue;
+		} else if (delay <= ROOT_MASK) {
+			slot = wheels[0][(int)(time & ROOT_MASK)];
+		} else {
+			if (delay > MAX_DELAY)
+				time = current + MAX_DELAY; // wait in the last slot, it will be cascaded again
+			int level = 1;
+			while (delay >= 1L << (ROOT_BITS + level * LEVEL_BITS) && level < LEVELS - 1)
+				level++;
+			slot = wheels[level][(int)(time >> (ROOT_BITS + (level - 1) * LEVEL_BITS)) & LEVEL_MASK];
+		}
+		schedule.previous = slot.previous;
+		schedule.next = slot;
+		slot.previous.next = schedule;
+		slot.previous = schedule;
+		count++;
+	}
+
+	@Override
+	protected void delete(ActivitySchedule schedule) {
+		if (schedule.next == null) return;
+		schedule.previous.next = schedule.next;
+		schedule.next.previous = schedule.previous;
+		schedule.previous = null;
+		schedule.next = null;
+		count--;
+	}
+
+	/* check */
+
+	private static final int[] CHECK_PERIODS = {1, 3, 50, 255, 256, 257, 1000, 16384, 16385, 70000, 300000};
+
+	/**
+	 * Step the given number of activities with random periods in an {@link ActivityHeap} and an
+	 * <code>ActivityTimingWheel</code> side by side, the way a world does: polling at the next time
+	 * of the wheel or a bit earlier, and stopping and starting activities now and then.
+	 *
+	 * @param n the number of activities
+	 * @param seed the seed of the random choices
+	 * @throws AssertionError if the wheel reports the next time later than the heap, or takes different schedules
+	 */
+	static void check(int n, long seed) {
+		Random random = new Random(seed);
+		ActivityQueue heap = new ActivityHeap();
+		ActivityQueue wheel = new ActivityTimingWheel(0);
+		List<Activity> activities = new ArrayList<Activity>(n);
+		for (int i=0; i<n; i++) {
+			final int period = CHECK_PERIODS[random.nextInt(CHECK_PERIODS.length)];
+			Activity activity = new Activity() {
+				public boolean wantsSteps() { return true; }
+				public float stepTime() { return period; }
+				public void step(float dt) { }
+			};
+			activities.add(activity);
+			long time = random.nextInt(2 * period);
+			addSchedule(heap, activity, time);
+			addSchedule(wheel, activity, time);
+		}
+		List<ActivitySchedule> heapDue = new ArrayList<ActivitySchedule>();
+		List<ActivitySchedule> wheelDue = new ArrayList<ActivitySchedule>();
+		Set<Object> keys = new HashSet<Object>();
+		long time = 0;
+		while (time < 1000000) {
+			long next = wheel.nextTime();
+			if (next > Math.max(heap.nextTime(), time)) // overdue schedules are due at once
+				throw new AssertionError("At "+time+" the wheel is next at "+next+", the heap at "+heap.nextTime());
+			time = random.nextInt(4) == 0 ? time + random.nextInt(300) : Math.max(time, next);
+			heap.pollDue(time, heapDue);
+			wheel.pollDue(time, wheelDue);
+			keys.clear();
+			for (ActivitySchedule schedule: heapDue)
+				keys.add(schedule.key);
+			for (ActivitySchedule schedule: wheelDue) {
+				if (!keys.remove(schedule.key))
+					throw new AssertionError("At "+time+" the wheel took a schedule at "+schedule.time+" the heap didn't");
+			}
+			if (!keys.isEmpty())
+				throw new AssertionError("At "+time+" the wheel missed "+keys.size()+" schedules due");
+			for (ActivitySchedule schedule: heapDue)
+				heap.reschedule(schedule, time + (long) schedule.activity.stepTime());
+			for (ActivitySchedule schedule: wheelDue)
+				wheel.reschedule(schedule, time + (long) schedule.activity.stepTime());
+			heapDue.clear();
+			wheelDue.clear();
+			if (random.nextInt(8) == 0) { // stop and start another activity
+				Activity activity = activities.get(random.nextInt(n));
+				heap.remove(activity);
+				wheel.remove(activity);
+				long start = time + random.nextInt(100000) - 10;
+				addSchedule(heap, activity, start);
+				addSchedule(wheel, activity, start);
+			}
+		}
+	}
+
+	private static void addSchedule(ActivityQueue queue, Activity activity, long time) {
+		ActivitySchedule schedule = new ActivitySchedule(activity);
+		schedule.time = time;
+		queue.add(schedule);
+	}
+
+	/* benchmark */
+
+	/**
+	 * Step the given number of activities (with periods of 50, 100 and 500 ms) for 10 simulated seconds
+	 * in ticks of 1 ms, with a <code>PriorityQueue</code>, an {@link ActivityHeap} and an
+	 * <code>ActivityTimingWheel</code>, and print the time per step of each one. A thousandth of the
+	 * steps also stops and starts an activity, which a <code>PriorityQueue</code> finds by a linear search.
+	 *
+	 * @param args the number of activities (100000 by default)
+	 */
+	public static void main(String[] args) {
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		for (long seed=0; seed<10; seed++)
+			check(100, seed);
+		System.out.println("The wheel agrees with the heap");
+		for (int run=0; run<3; run++) { // the first runs warm up
+			System.out.println("PriorityQueue:        " + benchmarkPriorityQueue(n) + " ns/step");
+			System.out.println("ActivityHeap:         " + benchmark(new ActivityHeap(), n) + " ns/step");
+			System.out.println("ActivityTimingWheel:  " + benchmark(new ActivityTimingWheel(0), n) + " ns/step");
+		}
+	}
+
+	private static final int[] PERIODS = {50, 100, 500};
+	private static final long DURATION = 10000;
+
+	private static List<ActivitySchedule> schedules(int n) {
+		List<ActivitySchedule> schedules = new ArrayList<ActivitySchedule>(n);
+		for (int i=0; i<n; i++) {
+			final int period = PERIODS[i % PERIODS.length];
+			ActivitySchedule schedule = new ActivitySchedule(new Activity() {
+				public boolean wantsSteps() { return true; }
+				public float stepTime() { return period; }
+				public void step(float dt) { }
+			});
+			schedule.time = i % period;
+			schedules.add(schedule);
+		}
+		return schedules;
+	}
+
+	private static long benchmark(ActivityQueue queue, int n) {
+		List<ActivitySchedule> schedules = schedules(n);
+		for (ActivitySchedule schedule: schedules)
+			queue.add(schedule);
+		List<ActivitySchedule> due = new ArrayList<ActivitySchedule>();
+		long steps = 0;
+		long start = System.nanoTime();
+		for (long time=0; time<DURATION; time++) {
+			queue.pollDue(time, due);
+			for (ActivitySchedule schedule: due) {
+				queue.reschedule(schedule, time + (long) schedule.activity.stepTime());
+				if (++steps % 1000 == 0) { // stop and start another activity
+					ActivitySchedule other = schedules.get((int) (steps / 1000 % n));
+					queue.remove(other.key);
+					queue.add(other);
+				}
+			}
+			due.clear();
+		}
+		return (System.nanoTime() - start) / steps;
+	}
+
+	private static long benchmarkPriorityQueue(int n) {
+		List<ActivitySchedule> schedules = schedules(n);
+		PriorityQueue<ActivitySchedule> queue = new PriorityQueue<ActivitySchedule>(n, new Comparator<ActivitySchedule>() {
+			public int compare(ActivitySchedule s1, ActivitySchedule s2) {
+				return s1.time < s2.time ? -1 : s1.time > s2.time ? 1 : 0;
+			}
+		});
+		queue.addAll(schedules);
+		long steps = 0;
+		long start = System.nanoTime();
+		for (long time=0; time<DURATION; time++) {
+			ActivitySchedule schedule = queue.peek();
+			while (schedule != null && schedule.time <= time) {
+				queue.poll();
+				schedule.time = time + (long) schedule.activity.stepTime();
+				queue.add(schedule);
+				if (++steps % 1000 == 0) {
+					ActivitySchedule other = schedules.get((int) (steps / 1000 % n));
+					queue.remove(other);
+					queue.add(other);
+				}
+				schedule = queue.peek();
+			}
+		}
+		return (System.nanoTime() - start) / steps;
+	}
+}
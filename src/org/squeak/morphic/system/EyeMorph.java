@@ -1,13 +1,20 @@
 package org.squeak.morphic.system;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
 import org.squeak.morphic.kernel.Canvas;
 import org.squeak.morphic.kernel.Color;
 import org.squeak.morphic.kernel.Morph;
 import org.squeak.morphic.kernel.Point;
+import org.squeak.morphic.kernel.PreciseTransformation;
 import org.squeak.morphic.kernel.Rectangle;
 import org.squeak.morphic.kernel.Transformation;
 import org.squeak.morphic.kernel.events.MouseClickEvent;
 import org.squeak.morphic.support.DelegatingCanvas;
+import org.squeak.morphic.support.RecordingCanvas;
 
 /**
  * Eyes render the World <i>within</i> and <i>under</i> their bounds.
@@ -20,6 +27,13 @@ import org.squeak.morphic.support.DelegatingCanvas;
  * <p>Different types of Eyes can implement different kinds of renderings, for example
  * spatial distortions (fish eye), or drawing all morphs with alpha (X-ray eyes).</p>
  * 
+ * <p>In <i>deep zoom</i> mode the eye keeps its transformation in double precision,
+ * with a floating origin at the eye center that is re-based whenever the eye moves, so
+ * it can zoom into the world far beyond what float transformations allow.</p>
+ * 
+ * <p>An eye with a {@link RenderTarget} publishes a {@link RenderSnapshot} of what it sees at the
+ * end of each tick, so the target can render it without holding the world lock.</p>
+ * 
  * <p><i>Every World should have at least one eye.</i></p>
  *
  * @see org.squeak.morphic.system.WorldMorph
@@ -28,6 +42,12 @@ import org.squeak.morphic.support.DelegatingCanvas;
 public class EyeMorph extends Morph {
 	
 	private Rectangle changedArea = Rectangle.UNIT;
+	private Rectangle snapshotArea; // changed since the last snapshot, drawWorld() and publishSnapshot() don't share the damage
+	
+	private boolean deepZoom;
+
+	private volatile RenderTarget renderTarget;
+	private volatile RenderSnapshot snapshot;
 
 	@Override
 	protected void draw(Canvas canvas) {
@@ -59,6 +79,35 @@ public class EyeMorph extends Morph {
 		return getBounds().contains(toCanonical(point));
 	}
 
+	/**
+	 * Enable or disable the deep zoom mode. In deep zoom mode the transformation chain from the
+	 * eye to every morph is composed in double precision relative to the eye center, and
+	 * only the resulting local transformations are rounded to float when they reach the canvas.
+	 * 
+	 * @see org.squeak.morphic.kernel.PreciseTransformation
+	 * 
+	 * @param deepZoom true to enable deep zoom
+	 */
+	public void setDeepZoom(boolean deepZoom) {
+		this.deepZoom = deepZoom;
+		setTransformation(transformation);
+	}
+
+	public boolean isDeepZoom() {
+		return deepZoom;
+	}
+
+	@Override
+	public void setTransformation(Transformation transformation) {
+		if (deepZoom) {
+			// re-base the floating origin at the eye center
+			transformation = PreciseTransformation.of(transformation).rebasedAt(0, 0);
+		} else if (transformation instanceof PreciseTransformation) {
+			transformation = new Transformation(transformation.m);
+		}
+		super.setTransformation(transformation);
+	}
+
 	/**
 	 * Notice that the given World area has changed and needs to be redrawn.
 	 * @param rect area that have changed and needs redrawing
@@ -68,11 +117,29 @@ public class EyeMorph extends Morph {
 			rect = toInner(rect);
 			rect = rect.intersection(getBounds()); // do this here or should it be done in WorldMorph?
 			changedArea = changedArea == null ? rect : rect.union(changedArea);
+			snapshotArea = snapshotArea == null ? rect : rect.union(snapshotArea);
 		} else {
-			changedArea = getBounds();
+			changedArea = snapshotArea = getBounds();
 		}
 	}
 
+	/**
+	 * Notice that the given World area has changed, clipped to the bounds of the eye.
+	 * @param box area that has changed, a float[] array <code>{left, top, right, bottom}</code> in the World space (not modified)
+	 */
+	void invalidate(float[] box) {
+		float[] inner = toInnerBox(box.clone());
+		Rectangle bounds = getBounds();
+		float left = Math.max(inner[0], bounds.x);
+		float top = Math.max(inner[1], bounds.y);
+		float right = Math.min(inner[2], bounds.x+bounds.width);
+		float bottom = Math.min(inner[3], bounds.y+bounds.height);
+		if (right < left || bottom < top) return; // out of view
+		Rectangle rect = new Rectangle(left, top, right-left, bottom-top);
+		changedArea = changedArea == null ? rect : rect.union(changedArea);
+		snapshotArea = snapshotArea == null ? rect : rect.union(snapshotArea);
+	}
+
 	/**
 	 * Returns the rectangular area within the eye space that has changed and needs to be redrawn.
 	 * It might have changed due to the passage of time (stepping), or due to user-input events
@@ -81,6 +148,7 @@ public class EyeMorph extends Morph {
 	 * @return the rectangular area within the eye space that has changed and needs to be redrawn
 	 */
 	public Rectangle getChangedArea() {
+		flushWorldChanges();
 		return changedArea;
 	}
 	
@@ -93,6 +161,7 @@ public class EyeMorph extends Morph {
 	 * @param canvas the Canvas to draw on
 	 */
 	public void drawWorld(Canvas canvas) {
+		flushWorldChanges();
 		Transformation outerTransformation = canvas.getTransformation();
 		canvas.setTransformation(outerTransformation.with(transformation.inverse()));
 		if (changedArea != null) {
@@ -123,6 +192,108 @@ public class EyeMorph extends Morph {
 		drawSubmorphs(canvas);
 	}
 	
+	/**
+	 * Set where this eye is rendered, so it publishes snapshots of the world for it (see
+	 * {@link #publishSnapshot()}), or null to stop publishing snapshots.
+	 * 
+	 * @param renderTarget the target, or null
+	 */
+	public void setRenderTarget(RenderTarget renderTarget) {
+		this.renderTarget = renderTarget;
+		this.snapshot = null;
+	}
+
+	public RenderTarget getRenderTarget() {
+		return renderTarget;
+	}
+
+	/**
+	 * Return the last snapshot published by this eye, or null if none. It can be called from any
+	 * thread, without holding the world lock.
+	 * 
+	 * @return the last snapshot of the world seen by this eye, or null
+	 */
+	public RenderSnapshot getSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * Record what this eye sees for its render target, and publish it as the current snapshot. Only
+	 * the morphs of the world in the changed area are recorded again; if nothing changed (and the
+	 * eye and the target stay the same) the current snapshot is kept.
+	 * 
+	 * <p>The world calls it at the end of each tick; it must be called in the world stepping thread
+	 * (or holding the world lock).</p>
+	 */
+	public void publishSnapshot() {
+		RenderTarget target = renderTarget;
+		final WorldMorph world = getWorld();
+		if (target == null || world == null) return;
+		world.flushChanges();
+		RenderSnapshot previous = snapshot;
+		int width = target.getWidth(), height = target.getHeight();
+		boolean sameView = previous != null && previous.isView(transformation, width, height);
+		if (sameView && snapshotArea == null) return;
+		final Rectangle damage = sameView ? snapshotArea : getBounds();
+		snapshotArea = null;
+
+		final Map<Morph, RenderSnapshot.Segment> reusable = sameView ? previous.getSegments(damage) : Collections.<Morph, RenderSnapshot.Segment>emptyMap();
+		final List<RenderSnapshot.Segment> segments = new ArrayList<RenderSnapshot.Segment>();
+		Canvas targetCanvas = target.newCanvas();
+		try {
+			record(world, targetCanvas, reusable, damage, segments);
+		} finally {
+			target.disposeCanvas(targetCanvas);
+		}
+
+		snapshot = new RenderSnapshot(segments.toArray(new RenderSnapshot.Segment[segments.size()]),
+				transformation, width, height, getBounds(), damage, previous);
+	}
+
+	/**
+	 * Record the world in a display list per morph, reusing the given segments of the morphs that are out of the damaged area
+	 */
+	private void record(final WorldMorph world, Canvas targetCanvas, final Map<Morph, RenderSnapshot.Segment> reusable, final Rectangle damage, final List<RenderSnapshot.Segment> segments) {
+		final RecordingCanvas canvas = new RecordingCanvas(targetCanvas);
+		Transformation outerTransformation = canvas.getTransformation();
+		canvas.setTransformation(outerTransformation.with(transformation.inverse()));
+		(new DelegatingCanvas(canvas) {
+			boolean draw = true;
+
+			@Override
+			public void drawMorph(Morph morph) {
+				// same as drawWorld(), in a display list per morph of the world
+				if (morph == EyeMorph.this) {
+					draw = false;
+				} else if (draw && morph.getOwner() != world) {
+					super.drawMorph(morph);
+				} else if (draw) {
+					segments.add(new RenderSnapshot.Segment(null, null, canvas.cut()));
+					RenderSnapshot.Segment segment = reusable.get(morph);
+					Rectangle bounds = morph.getFullBounds();
+					if (bounds != null)
+						bounds = toInner(morph.toOuter(bounds));
+					// record again if it was in the damaged area, or it is now
+					if (segment == null || bounds == null || bounds.intersects(damage)) {
+						super.drawMorph(morph);
+						segment = new RenderSnapshot.Segment(morph, bounds, canvas.cut());
+					}
+					segments.add(segment);
+				}
+			}
+
+		}).drawMorph(world);
+		canvas.setTransformation(outerTransformation);
+		drawSubmorphs(canvas);
+		segments.add(new RenderSnapshot.Segment(null, null, canvas.cut()));
+	}
+
+	private void flushWorldChanges() {
+		WorldMorph world = getWorld();
+		if (world != null)
+			world.flushChanges();
+	}
+
 	public boolean handleEvent(MouseClickEvent e) {
 		return false;
 	}
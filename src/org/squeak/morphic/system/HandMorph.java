@@ -78,7 +78,7 @@ public class HandMorph extends Morph {
 				mouseFocus = morph;
 				mouseFocus.handleMouseEnter(this);
 			}
-			e.position = morph.toLocal(morph.toInner(e.position, owner));
+			e.position = morph.toLocal(e.position, owner);
 			e.dispatchToMorph(morph);
 		} else {
 			if (mouseFocus != null) {
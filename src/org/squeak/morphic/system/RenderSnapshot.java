@@ -0,0 +1,120 @@
+package org.squeak.morphic.system;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.squeak.morphic.kernel.Canvas;
+import org.squeak.morphic.kernel.Morph;
+import org.squeak.morphic.kernel.Rectangle;
+import org.squeak.morphic.kernel.Transformation;
+import org.squeak.morphic.support.DisplayList;
+
+/**
+ * <p>An immutable picture of the world as seen by an eye, recorded in the world stepping thread
+ * at the end of a tick (see {@link EyeMorph#publishSnapshot()}). Renderers replay it without
+ * holding the world lock, while the world keeps stepping.</p>
+ *
+ * <p>The snapshot is a sequence of display lists, one for each morph in the world (and one for
+ * whatever is drawn between them). The next snapshot shares the lists of the morphs that
+ * didn't change, so only the damaged morphs are recorded again.</p>
+ *
+ * @see org.squeak.morphic.system.RenderTarget
+ */
+public final class RenderSnapshot {
+
+	private static final AtomicLong sequences = new AtomicLong();
+
+	/**
+	 * The drawing of a morph in the world (or of whatever is drawn between morphs, if there is no morph)
+	 */
+	static final class Segment {
+		final Morph morph;
+		final Rectangle bounds; // full bounds of the morph in the eye space, or null
+		final DisplayList commands;
+
+		Segment(Morph morph, Rectangle bounds, DisplayList commands) {
+			this.morph = morph;
+			this.bounds = bounds;
+			this.commands = commands;
+		}
+	}
+
+	private final Segment[] segments;
+	private final Transformation view;
+	private final int width, height;
+	private final Rectangle bounds, changedArea;
+	private final long sequence, previousSequence;
+
+	RenderSnapshot(Segment[] segments, Transformation view, int width, int height, Rectangle bounds, Rectangle changedArea, RenderSnapshot previous) {
+		this.segments = segments;
+		this.view = view;
+		this.width = width;
+		this.height = height;
+		this.bounds = bounds;
+		this.changedArea = changedArea;
+		this.sequence = sequences.incrementAndGet();
+		this.previousSequence = previous == null ? 0 : previous.sequence;
+	}
+
+	/**
+	 * Draw the snapshot on the given canvas, which should have the geometry of the render target.
+	 *
+	 * @param canvas the canvas to draw on
+	 */
+	public void replay(Canvas canvas) {
+		Transformation transformation = canvas.getTransformation();
+		for (Segment segment: segments)
+			segment.commands.replay(canvas);
+		canvas.setTransformation(transformation);
+	}
+
+	/**
+	 * Return the area that changed since the previous snapshot of the eye, in the eye space.
+	 */
+	public Rectangle getChangedArea() {
+		return changedArea;
+	}
+
+	/**
+	 * Return the bounds of the eye, in the eye space
+	 */
+	public Rectangle getBounds() {
+		return bounds;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Return true if this is the snapshot that the eye published right after the given one, so
+	 * only its {@link #getChangedArea() changed area} needs to be redrawn.
+	 */
+	public boolean follows(RenderSnapshot snapshot) {
+		return snapshot != null && previousSequence == snapshot.sequence;
+	}
+
+	boolean isView(Transformation view, int width, int height) {
+		return this.width == width && this.height == height && Arrays.equals(this.view.m, view.m);
+	}
+
+	/**
+	 * Return the segments of the morphs that weren't damaged in the given area, by morph. Only the
+	 * bounds they were recorded with are tested, a morph that moved into the area since then must
+	 * be recorded again too (see {@link EyeMorph#publishSnapshot()}).
+	 */
+	Map<Morph, Segment> getSegments(Rectangle damage) {
+		Map<Morph, Segment> reusable = new IdentityHashMap<Morph, Segment>();
+		for (Segment segment: segments) {
+			if (segment.morph != null && segment.bounds != null && (damage == null || !segment.bounds.intersects(damage)))
+				reusable.put(segment.morph, segment);
+		}
+		return reusable;
+	}
+}
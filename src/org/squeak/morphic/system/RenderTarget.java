@@ -0,0 +1,38 @@
+package org.squeak.morphic.system;
+
+import org.squeak.morphic.kernel.Canvas;
+
+/**
+ * Where the world seen by an eye is rendered, e.g. a window. The eye records a
+ * {@link RenderSnapshot} for its target at the end of each tick, and the target replays it.
+ *
+ * @see org.squeak.morphic.system.EyeMorph#setRenderTarget(RenderTarget)
+ */
+public interface RenderTarget {
+
+	/**
+	 * Return the width of the target, in pixels
+	 */
+	int getWidth();
+
+	/**
+	 * Return the height of the target, in pixels
+	 */
+	int getHeight();
+
+	/**
+	 * Return a new canvas with the geometry of the target (its size and clipping). Snapshots are
+	 * recorded against it, so morphs decide what to draw as they would on the target, but nothing
+	 * is drawn on it.
+	 *
+	 * <p>It's called in the world stepping thread.</p>
+	 */
+	Canvas newCanvas();
+
+	/**
+	 * Release the given canvas, returned by {@link #newCanvas()}, once the snapshot is recorded.
+	 *
+	 * <p>It's called in the world stepping thread.</p>
+	 */
+	void disposeCanvas(Canvas canvas);
+}
@@ -0,0 +1,139 @@
+package org.squeak.morphic.system;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * <p>An activity that runs in its own thread instead of being stepped by the world, so it can
+ * block (sleeping, polling files or sockets, waiting for a computation) without holding the
+ * stepping of the world or of other activities.</p>
+ *
+ * <p>Subclasses implement {@link #run()}, usually a loop that calls {@link #sleep(float)} between
+ * steps. The morphs of the world must only be changed from the world stepping thread, so changes
+ * are passed to the world with {@link #inWorld(Runnable)} (which waits for the change to be done)
+ * or {@link #laterInWorld(Runnable)}. Stopping the activity (or stopping the stepping of the world)
+ * interrupts its thread.</p>
+ *
+ * <p>The threads are created by {@link #THREAD_FACTORY}, which makes a daemon platform thread per
+ * activity. On a JVM with virtual threads, setting it to <code>Thread.ofVirtual().factory()</code>
+ * lets thousands of slow activities run at the same time.</p>
+ *
+ * @see org.squeak.morphic.system.WorldMorph#startActivity(ThreadedActivity)
+ * @see org.squeak.morphic.system.WorldMorph#invokeLater(Runnable)
+ */
+public abstract class ThreadedActivity {
+
+	public static ThreadFactory THREAD_FACTORY = new ThreadFactory() {
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable);
+			thread.setDaemon(true);
+			return thread;
+		}
+	};
+
+	private volatile WorldMorph world;
+	private volatile Thread thread;
+	private long lastTime;
+
+	/**
+	 * The body of the activity, it runs in its own thread until it returns or the activity is stopped.
+	 *
+	 * @throws InterruptedException if the activity is stopped while waiting
+	 */
+	protected abstract void run() throws InterruptedException;
+
+	/**
+	 * Start running in a new thread, in the given world.
+	 */
+	final synchronized void start(final WorldMorph world) {
+		if (thread != null) return;
+		this.world = world;
+		thread = THREAD_FACTORY.newThread(new Runnable() {
+			public void run() {
+				lastTime = System.nanoTime();
+				try {
+					ThreadedActivity.this.run();
+				} catch (InterruptedException e) {
+					// stopped
+				} catch (Exception e) {
+					e.printStackTrace();
+					System.out.println("Error an Activity produced an exception, the offending activity was stopped");
+				} finally {
+					boolean ended = false;
+					synchronized(ThreadedActivity.this) {
+						if (thread == Thread.currentThread()) {
+							thread = null;
+							ended = true; // not stopped
+						}
+					}
+					if (ended)
+						world.threadedActivityEnded(ThreadedActivity.this);
+				}
+			}
+		});
+		thread.start();
+	}
+
+	/**
+	 * Stop running, interrupting the thread.
+	 */
+	final synchronized void stop() {
+		if (thread != null) {
+			thread.interrupt();
+			thread = null;
+		}
+	}
+
+	public boolean isRunning() {
+		return thread != null;
+	}
+
+	public WorldMorph getWorld() {
+		return world;
+	}
+
+	/**
+	 * Sleep for the given time, and return the time since the previous step (or since the activity started).
+	 *
+	 * @param seconds the time to sleep
+	 * @return the time elapsed since the previous call, in seconds (the <code>dt</code> of this step)
+	 * @throws InterruptedException if the activity is stopped meanwhile
+	 */
+	protected final float sleep(float seconds) throws InterruptedException {
+		long nanos = (long)(seconds * 1e9);
+		if (nanos > 0)
+			Thread.sleep(nanos / 1000000, (int)(nanos % 1000000));
+		else if (Thread.interrupted())
+			throw new InterruptedException();
+		long time = System.nanoTime();
+		float dt = (time - lastTime) / 1e9f;
+		lastTime = time;
+		return dt;
+	}
+
+	/**
+	 * Run the given action in the world stepping thread, and wait until it's done.
+	 *
+	 * @param action an action that changes the world
+	 * @throws InterruptedException if the activity is stopped meanwhile
+	 */
+	protected final void inWorld(Runnable action) throws InterruptedException {
+		FutureTask<Object> task = new FutureTask<Object>(action, null);
+		world.invokeLater(task);
+		try {
+			task.get();
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	/**
+	 * Run the given action in the world stepping thread, without waiting for it.
+	 *
+	 * @param action an action that changes the world
+	 */
+	protected final void laterInWorld(Runnable action) {
+		world.invokeLater(action);
+	}
+}
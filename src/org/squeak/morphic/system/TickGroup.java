@@ -0,0 +1,155 @@
+package org.squeak.morphic.system;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.squeak.morphic.kernel.Morph;
+
+/**
+ * <p>The stepping morphs of a world that share the same step time (the <i>period</i>, in milliseconds).</p>
+ *
+ * <p>A tick group is a single activity for the world: all its morphs are stepped together, in one
+ * batch per tick, and the changes they report while stepping are passed to the eyes as a single
+ * area. This way morphs with the same period don't drift apart, and their changes end up in the same
+ * frame.</p>
+ *
+ * <p>Each group keeps statistics of the time it takes to step its morphs.</p>
+ *
+ * @see org.squeak.morphic.system.WorldMorph#getTickGroups()
+ */
+public class TickGroup implements Activity {
+
+	private final WorldMorph world;
+	private final int period;
+	private final List<Morph> morphs = new ArrayList<Morph>();
+	private final Map<Morph, Integer> indices = new IdentityHashMap<Morph, Integer>();
+	private Morph[] leftover; // the morphs that didn't step in the last tick because the budget ran out
+
+	private long ticks, steps;
+	private long totalTime, maxTime, lastTime; // nanoseconds
+
+	TickGroup(WorldMorph world, int period) {
+		this.world = world;
+		this.period = period;
+	}
+
+	/**
+	 * Return the step time of the morphs in this group, in milliseconds
+	 */
+	public int getPeriod() {
+		return period;
+	}
+
+	public int size() {
+		return morphs.size();
+	}
+
+	boolean contains(Morph morph) {
+		return indices.containsKey(morph);
+	}
+
+	void add(Morph morph) {
+		indices.put(morph, morphs.size());
+		morphs.add(morph);
+	}
+
+	void remove(Morph morph) {
+		Integer index = indices.remove(morph);
+		if (index == null) return;
+		// move the last one into the hole, the stepping order doesn't matter
+		Morph last = morphs.remove(morphs.size() - 1);
+		if (last != morph) {
+			morphs.set(index, last);
+			indices.put(last, index);
+		}
+	}
+
+	/**
+	 * Move the given morphs of the group to the front, so they step first in the next tick
+	 */
+	void moveToFront(List<Morph> first) {
+		List<Morph> others = new ArrayList<Morph>(morphs);
+		morphs.clear();
+		for (Morph morph: first) {
+			indices.put(morph, -1);
+			morphs.add(morph);
+		}
+		for (Morph morph: others) {
+			if (indices.get(morph) >= 0)
+				morphs.add(morph);
+		}
+		for (int i=0; i<morphs.size(); i++)
+			indices.put(morphs.get(i), i);
+	}
+
+	public boolean wantsSteps() {
+		return !morphs.isEmpty();
+	}
+
+	public float stepTime() {
+		return period / 1000.0f;
+	}
+
+	/**
+	 * Step the morphs of the group, or only those left in the last tick if the tick budget of the world ran out
+	 */
+	public void step(float dt) {
+		Morph[] stepping = leftover != null ? leftover : morphs.toArray(new Morph[morphs.size()]);
+		long start = System.nanoTime();
+		leftover = world.stepGroup(this, stepping, dt);
+		long time = System.nanoTime() - start;
+		ticks++;
+		steps += stepping.length - (leftover == null ? 0 : leftover.length);
+		totalTime += time;
+		lastTime = time;
+		maxTime = Math.max(maxTime, time);
+	}
+
+	/**
+	 * Return true if some morphs were left to step in the next tick, because the tick budget of the world ran out
+	 */
+	boolean hasLeftover() {
+		return leftover != null;
+	}
+
+	/**
+	 * Return the number of times this group has been stepped
+	 */
+	public long getTicks() {
+		return ticks;
+	}
+
+	/**
+	 * Return the number of morph steps done by this group
+	 */
+	public long getSteps() {
+		return steps;
+	}
+
+	/**
+	 * Return the time taken by the last tick, in seconds
+	 */
+	public float getLastTime() {
+		return lastTime / 1e9f;
+	}
+
+	/**
+	 * Return the longest time taken by a tick, in seconds
+	 */
+	public float getMaxTime() {
+		return maxTime / 1e9f;
+	}
+
+	/**
+	 * Return the average time taken by a tick, in seconds
+	 */
+	public float getAverageTime() {
+		return ticks == 0 ? 0 : totalTime / 1e9f / ticks;
+	}
+
+	public String toString() {
+		return getClass().getSimpleName()+" "+period+"ms: "+morphs.size()+" morphs, "+ticks+" ticks, average "+getAverageTime()*1000+"ms, max "+getMaxTime()*1000+"ms";
+	}
+}
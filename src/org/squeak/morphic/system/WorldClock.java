@@ -0,0 +1,118 @@
+package org.squeak.morphic.system;
+
+/**
+ * <p>A fixed-timestep clock. The time that passes (measured with <code>System.nanoTime()</code>)
+ * is accumulated, and consumed in steps of a fixed duration, so that something like a physics
+ * simulation gives the same results no matter how often (or how regularly) it's stepped.</p>
+ *
+ * <p>If too much time has passed (e.g. the stepping thread was busy) at most {@link #MAX_STEPS}
+ * steps are taken at once and the rest of the time is dropped, instead of spiraling down trying
+ * to catch up. The time left in the accumulator is available as the interpolation
+ * {@link #getAlpha() alpha}, so renderers can draw between the last two states.</p>
+ *
+ * <pre>
+ * int steps = clock.advance();
+ * for (int i=0; i&lt;steps; i++)
+ *     simulation.step(clock.getStepTime());
+ * </pre>
+ */
+public class WorldClock {
+
+	/**
+	 * Maximum number of steps taken to catch up at once
+	 */
+	public static int MAX_STEPS = 5;
+
+	private final float stepTime;
+	private final long stepNanos;
+	private long lastTime;
+	private long accumulator;
+	private boolean started;
+	private long steps, droppedSteps;
+
+	/**
+	 * @param stepTime the fixed duration of each step, in seconds
+	 */
+	public WorldClock(float stepTime) {
+		this.stepTime = stepTime;
+		this.stepNanos = Math.max((long)(stepTime * 1e9), 1);
+	}
+
+	public float getStepTime() {
+		return stepTime;
+	}
+
+	/**
+	 * Accumulate the time passed since the last call, and return the number of steps to take now.
+	 * The first call takes a single step.
+	 *
+	 * @return the number of steps of {@link #getStepTime()} seconds to take now
+	 */
+	public int advance() {
+		return advance(System.nanoTime());
+	}
+
+	/**
+	 * Accumulate the time passed until the given time (in nanoseconds, as returned by <code>System.nanoTime()</code>).
+	 *
+	 * @param time the current time, in nanoseconds
+	 * @return the number of steps of {@link #getStepTime()} seconds to take now
+	 */
+	public synchronized int advance(long time) {
+		long accumulated;
+		if (!started) {
+			started = true;
+			accumulated = stepNanos;
+		} else {
+			accumulated = accumulator + Math.max(time - lastTime, 0);
+		}
+		long n = accumulated / stepNanos;
+		if (n > MAX_STEPS) {
+			droppedSteps += n - MAX_STEPS;
+			n = MAX_STEPS;
+			accumulated = n * stepNanos; // drop the rest, don't try to catch up
+		}
+		lastTime = time;
+		accumulator = accumulated - n * stepNanos;
+		steps += n;
+		return (int) n;
+	}
+
+	/**
+	 * Forget the time accumulated, the next call to {@link #advance()} will take a single step.
+	 */
+	public synchronized void reset() {
+		started = false;
+		accumulator = 0;
+	}
+
+	/**
+	 * Return how far the current time is between the last step and the next one, from 0 to 1.
+	 * Renderers can use it to interpolate between the last two states.
+	 */
+	public float getAlpha() {
+		return getAlpha(System.nanoTime());
+	}
+
+	/**
+	 * Return how far the given time (in nanoseconds) is between the last step and the next one, from 0 to 1.
+	 */
+	public synchronized float getAlpha(long time) {
+		float alpha = (accumulator + Math.max(time - lastTime, 0)) / (float) stepNanos;
+		return Math.min(alpha, 1);
+	}
+
+	/**
+	 * Return the number of steps taken so far
+	 */
+	public synchronized long getSteps() {
+		return steps;
+	}
+
+	/**
+	 * Return the number of steps that were dropped because of the catch-up cap
+	 */
+	public synchronized long getDroppedSteps() {
+		return droppedSteps;
+	}
+}
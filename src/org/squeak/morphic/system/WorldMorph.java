@@ -3,9 +3,19 @@ package org.squeak.morphic.system;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.PriorityQueue;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.locks.LockSupport;
 
 import javax.imageio.ImageIO;
 
@@ -21,6 +31,7 @@ import org.squeak.morphic.examples.ScreenMorph;
 import org.squeak.morphic.examples.XRayEyeMorph;
 import org.squeak.morphic.examples.graphs.GraphMorph;
 import org.squeak.morphic.kernel.Canvas;
+import org.squeak.morphic.kernel.ChangeTransaction;
 import org.squeak.morphic.kernel.Color;
 import org.squeak.morphic.kernel.Morph;
 import org.squeak.morphic.kernel.Point;
@@ -43,29 +54,86 @@ import org.squeak.morphic.physics.forces.NSpringForce;
  */
 public class WorldMorph extends Morph {
 
-	private PriorityQueue<ActivitySchedule> activities = new PriorityQueue<ActivitySchedule>();
-	private transient Thread steppingThread;
+	/**
+	 * Number of concurrent steps done by each task when stepping in parallel.
+	 */
+	public static int PARALLEL_STEPS = 64;
+
+	/**
+	 * Smallest size, relative to the view of an eye, of a visible morph (see {@link Morph#stepsOnlyWhenVisible()}).
+	 */
+	public static float MIN_VISIBLE_SIZE = 0.001f;
+
+	/**
+	 * Time between checks for suspended morphs that came back into view, in seconds.
+	 */
+	public static float VISIBILITY_CHECK_TIME = 0.25f;
+
+	private static ForkJoinPool forkJoinPool; // see getForkJoinPool()
+
+	/* overload policies (see setOverloadPolicy()) */
+	public static final int OVERLOAD_COALESCE = 0;
+	public static final int OVERLOAD_SKIP = 1;
+	public static final int OVERLOAD_SHED = 2;
+
+	private static final Comparator<ActivitySchedule> BY_PRIORITY = new Comparator<ActivitySchedule>() {
+		public int compare(ActivitySchedule s1, ActivitySchedule s2) {
+			return Float.compare(s1.activity.stepTime(), s2.activity.stepTime());
+		}
+	};
+
+	private ActivityQueue activities = new ActivityHeap();
+	private float tickBudget = 0.025f; // seconds
+	private int overloadPolicy = OVERLOAD_COALESCE;
+	private volatile long skippedSteps, lateSteps, overloadedTicks;
+	private long tickDeadline; // System.nanoTime() when the budget of the current tick runs out
+	private int tickSteps; // steps done in the current tick
+	private boolean inTick, tickOverloaded;
+	private volatile boolean parallelStepping;
+	private final ThreadLocal<List<Rectangle>> collectedChanges = new ThreadLocal<List<Rectangle>>();
+	private final List<ActivitySchedule> dueSchedules = new ArrayList<ActivitySchedule>();
+	private final Map<Integer, TickGroup> tickGroups = new HashMap<Integer, TickGroup>(); // by period
+	private final Map<Morph, TickGroup> steppingGroups = new IdentityHashMap<Morph, TickGroup>();
+	private final Map<Morph, Long> suspendedMorphs = new IdentityHashMap<Morph, Long>(); // time of suspension
+	private final Activity visibilityCheck = new Activity() {
+		public boolean wantsSteps() {
+			return !suspendedMorphs.isEmpty();
+		}
+		public float stepTime() {
+			return VISIBILITY_CHECK_TIME;
+		}
+		public void step(float dt) {
+			resumeVisibleMorphs();
+		}
+	};
+	private final Queue<Runnable> actions = new ConcurrentLinkedQueue<Runnable>();
+	private final Set<ThreadedActivity> threadedActivities = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<ThreadedActivity, Boolean>()));
+	private volatile List<EyeMorph> eyes = Collections.emptyList(); // replaced when eyes are added or removed
+	private final float[] damage = new float[4]; // box of the changes reported since the last flush
+	private boolean damaged, unboundedDamage;
+	private volatile ChangeTransaction transaction; // open change transaction, or null
+	private int transactionDepth;
+	private transient volatile Thread steppingThread;
+	private transient volatile WorldRuntime runtime;
 	
-	class ActivitySchedule implements Comparable<ActivitySchedule> {
-		Activity activity;
+	static class ActivitySchedule {
+		final Activity activity;
+		final Object key; // the activity itself
 		long time;
+		int index = -1; // slot in an activity heap
+		ActivitySchedule previous, next; // links in a slot of a timing wheel
 		ActivitySchedule(Activity activity) {
 			this.activity = activity;
+			this.key = activity;
 			this.time = System.currentTimeMillis();
 		}
-		public int compareTo(ActivitySchedule o) {
-			return time < o.time ? -1 : time > o.time ? 1 : 0;
+		ActivitySchedule() { // the head of a slot in a timing wheel
+			this.activity = null;
+			this.key = null;
+			this.previous = this.next = this;
 		}
 	}
 	
-	class MorphSteppingActivity implements Activity {
-		Morph morph;
-		public MorphSteppingActivity(Morph morph) { this.morph = morph; }
-		public boolean wantsSteps() { return morph.wantsSteps(); }
-		public float stepTime() { return morph.stepTime(); }
-		public void step(float dt) { morph.step(dt); }
-	}
-
 	@Override
 	protected void draw(Canvas canvas) {
 		canvas.setColor(Color.LAVENDER);
@@ -73,13 +141,154 @@ public class WorldMorph extends Morph {
 	}
 
 	@Override
-	protected void changed(Rectangle rect) {
-		//FIXME slow
+	protected void changed(float[] box) {
+		List<Rectangle> changes = collectedChanges.get();
+		if (changes != null) {
+			// stepping in parallel, the changes are reported at the end of the step
+			changes.add(box == null ? null : Rectangle.fromBox(box));
+		} else if (box == null) {
+			unboundedDamage = true;
+		} else {
+			addDamage(box[0], box[1], box[2], box[3]);
+		}
+	}
+
+	private void addDamage(float left, float top, float right, float bottom) {
+		float[] box = damage;
+		if (!damaged) {
+			box[0] = left;
+			box[1] = top;
+			box[2] = right;
+			box[3] = bottom;
+			damaged = true;
+		} else {
+			if (left < box[0]) box[0] = left;
+			if (top < box[1]) box[1] = top;
+			if (right > box[2]) box[2] = right;
+			if (bottom > box[3]) box[3] = bottom;
+		}
+	}
+
+	/**
+	 * Pass the changes reported since the last flush to the eyes at once, each one clipped to the
+	 * view of the eye. The world does it at the end of each tick, and the eyes before drawing.
+	 */
+	void flushChanges() {
+		if (!damaged && !unboundedDamage) return;
+		for (EyeMorph eye: eyes) {
+			if (unboundedDamage)
+				eye.invalidate((Rectangle) null);
+			else
+				eye.invalidate(damage);
+		}
+		damaged = unboundedDamage = false;
+	}
+
+	/**
+	 * Open a change transaction: until it is ended, the morphs whose transformation changes are only
+	 * recorded, and the area each one covered before and after is reported once at the end.
+	 * Transactions nest, the changes are reported when the outermost one ends.
+	 * 
+	 * @see #endChanges()
+	 * @see #batch(Runnable)
+	 */
+	public void beginChanges() {
+		if (transactionDepth++ == 0)
+			transaction = new ChangeTransaction();
+	}
+
+	/**
+	 * End the change transaction opened by {@link #beginChanges()}, reporting the changes recorded
+	 * if it is the outermost one.
+	 */
+	public void endChanges() {
+		if (transactionDepth == 0)
+			throw new IllegalStateException("No change transaction to end");
+		if (--transactionDepth == 0) {
+			ChangeTransaction changes = transaction;
+			transaction = null;
+			changes.commit();
+		}
+	}
+
+	/**
+	 * Run the given changes in a change transaction, so moving, scaling or rotating a morph
+	 * several times reports the area it covers only before and after all the changes.
+	 * 
+	 * <pre>
+	 * world.batch(new Runnable() {
+	 *     public void run() {
+	 *         morph.translateBy(dx, dy);
+	 *         morph.rotateBy(theta);
+	 *         morph.scaleBy(scale);
+	 *     }
+	 * });
+	 * </pre>
+	 * 
+	 * @param changes the changes to run
+	 */
+	public void batch(Runnable changes) {
+		beginChanges();
+		try {
+			changes.run();
+		} finally {
+			endChanges();
+		}
+	}
+
+	/**
+	 * Return the open change transaction, or null if there is none
+	 */
+	public ChangeTransaction getTransaction() {
+		return transaction;
+	}
+
+	@Override
+	protected void addMorphAtIndex(Morph morph, int index) {
+		super.addMorphAtIndex(morph, index);
+		if (morph instanceof EyeMorph)
+			updateEyes();
+	}
+
+	@Override
+	protected void removeMorphAtIndex(int index) {
+		boolean eye = submorphs.get(index) instanceof EyeMorph;
+		super.removeMorphAtIndex(index);
+		if (eye)
+			updateEyes();
+	}
+
+	@Override
+	public void addMorphs(Collection<? extends Morph> morphs) {
+		super.addMorphs(morphs);
+		if (containsEye(morphs))
+			updateEyes();
+	}
+
+	@Override
+	public void removeMorphs(Collection<? extends Morph> morphs) {
+		super.removeMorphs(morphs);
+		if (containsEye(morphs))
+			updateEyes();
+	}
+
+	private static boolean containsEye(Collection<? extends Morph> morphs) {
+		for (Morph morph: morphs) {
+			if (morph instanceof EyeMorph) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Update the registry of eyes, in Z-order, after an eye was added or removed
+	 */
+	private void updateEyes() {
+		List<EyeMorph> eyes = new ArrayList<EyeMorph>();
 		for (Morph m: submorphs) {
-			if (m instanceof EyeMorph) {
-				((EyeMorph)m).invalidate(rect);
-			}
+			if (m instanceof EyeMorph)
+				eyes.add((EyeMorph)m);
 		}
+		this.eyes = Collections.unmodifiableList(eyes);
 	}
 
 	@Override
@@ -93,113 +302,685 @@ public class WorldMorph extends Morph {
 	}
 
 	public void startActivity(Activity activity) {
-		if (activity.wantsSteps()) {
-			for (ActivitySchedule schedule: activities) {
-				if (schedule.activity == activity)
-					return;
-			}
+		if (activity.wantsSteps() && !activities.contains(activity))
 			activities.add(new ActivitySchedule(activity));
-		}
-		
 	}
 	
 	public void stopActivity(Activity activity) {
-		for (ActivitySchedule schedule: activities) {
-			if (schedule.activity == activity) {
-				activities.remove(schedule);
-				return;
+		activities.remove(activity);
+	}
+
+	/**
+	 * Start running the given activity in its own thread. It runs until it's done, it's stopped
+	 * or the world stops stepping (see {@link #stopStepping()}).
+	 * 
+	 * @param activity the activity to start
+	 */
+	public void startActivity(ThreadedActivity activity) {
+		threadedActivities.add(activity);
+		activity.start(this);
+	}
+
+	public void stopActivity(ThreadedActivity activity) {
+		threadedActivities.remove(activity);
+		activity.stop();
+	}
+
+	/**
+	 * Forget the given activity, its thread is done
+	 */
+	void threadedActivityEnded(ThreadedActivity activity) {
+		threadedActivities.remove(activity);
+	}
+
+	/**
+	 * Run the given action in the stepping thread of the world (holding the world lock), before
+	 * the next step. This is how other threads change the morphs of the world. If the world is
+	 * not stepping the action is run right away, in the calling thread (holding the world lock).
+	 * 
+	 * @param action the action to run
+	 */
+	public void invokeLater(Runnable action) {
+		actions.add(action);
+		Thread thread = steppingThread;
+		if (thread != null)
+			LockSupport.unpark(thread);
+		WorldRuntime runtime = this.runtime;
+		if (runtime != null)
+			runtime.wake(this);
+		if (thread == null && runtime == null) {
+			synchronized(this) {
+				runActions(); // nobody else would
 			}
 		}
 	}
 
-	public void startStepping(Morph morph) {
-		if (morph.wantsSteps()) {
-			for (ActivitySchedule schedule: activities) {
-				if (schedule.activity instanceof MorphSteppingActivity)
-					if (((MorphSteppingActivity) schedule.activity).morph == morph)
-						return;
+	private void runActions() {
+		Runnable action;
+		while ((action = actions.poll()) != null) {
+			try {
+				action.run();
+			} catch (Exception e) {
+				e.printStackTrace();
 			}
-			activities.add(new ActivitySchedule(new MorphSteppingActivity(morph)));
 		}
 	}
+
+	/**
+	 * Start stepping the given morph, if it wants steps, in the tick group of its step time.
+	 * 
+	 * @param morph the morph to start stepping
+	 */
+	public void startStepping(Morph morph) {
+		if (!morph.wantsSteps() || steppingGroups.containsKey(morph)) return;
+		suspendedMorphs.remove(morph);
+		int period = periodOf(morph);
+		TickGroup group = tickGroups.get(period);
+		if (group == null) {
+			group = new TickGroup(this, period);
+			tickGroups.put(period, group);
+			activities.add(new ActivitySchedule(group));
+		}
+		group.add(morph);
+		steppingGroups.put(morph, group);
+	}
 	
 	public void stopStepping(Morph morph) {
-		for (ActivitySchedule schedule: activities) {
-			if (schedule.activity instanceof MorphSteppingActivity)
-				if (((MorphSteppingActivity) schedule.activity).morph == morph) {
-					activities.remove(schedule);
-					return;
-				}
+		suspendedMorphs.remove(morph);
+		TickGroup group = steppingGroups.remove(morph);
+		if (group == null) return;
+		group.remove(morph);
+		if (group.size() == 0) {
+			tickGroups.remove(group.getPeriod());
+			activities.remove(group);
 		}
 	}
 
+	private static int periodOf(Morph morph) {
+		return Math.max(Math.round(morph.stepTime()*1000), 1);
+	}
+
+	/**
+	 * Return the tick groups of the morphs stepping in this world, with their statistics.
+	 * 
+	 * @return the tick groups of this world
+	 */
+	public List<TickGroup> getTickGroups() {
+		return Collections.unmodifiableList(new ArrayList<TickGroup>(tickGroups.values()));
+	}
+
+	/**
+	 * Return true if the full bounds of the given morph are in the view of some eye of this world,
+	 * and not too small to be seen there (see {@link #MIN_VISIBLE_SIZE}). Morphs without bounds,
+	 * and all morphs in a world without eyes, are considered visible.
+	 * 
+	 * @param morph a morph in this world
+	 * @return true if the morph can be seen by some eye
+	 */
+	public boolean isVisible(Morph morph) {
+		return isVisible(morph, getViews());
+	}
+
+	/**
+	 * Return the bounds of the eyes of this world, in the world space
+	 */
+	private List<Rectangle> getViews() {
+		List<Rectangle> views = new ArrayList<Rectangle>();
+		for (EyeMorph eye: eyes)
+			views.add(eye.toOuter(eye.getBounds()));
+		return views;
+	}
+
+	private boolean isVisible(Morph morph, List<Rectangle> views) {
+		if (views.isEmpty()) return true;
+		Rectangle rect = morph.getFullBounds();
+		for (Morph m = morph; rect != null && m != this; m = m.getOwner()) {
+			if (m.getOwner() == null) return false; // not in this world
+			rect = m.toOuter(rect);
+		}
+		if (rect == null) return true;
+		for (Rectangle view: views) {
+			if (rect.intersects(view) && Math.max(rect.width / view.width, rect.height / view.height) >= MIN_VISIBLE_SIZE)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Stop stepping the given morph until it comes back into view
+	 */
+	private void suspend(Morph morph) {
+		stopStepping(morph);
+		suspendedMorphs.put(morph, System.currentTimeMillis());
+		startActivity(visibilityCheck);
+	}
+
+	/**
+	 * Step the suspended morphs that are visible again once, with all the time they were suspended
+	 * as dt, and put them back in their tick groups.
+	 */
+	private void resumeVisibleMorphs() {
+		List<Rectangle> views = getViews();
+		long currentTime = System.currentTimeMillis();
+		for (Morph morph: new ArrayList<Morph>(suspendedMorphs.keySet())) {
+			// a morph may have been resumed or stopped by another one
+			if (!suspendedMorphs.containsKey(morph) || !isVisible(morph, views)) continue;
+			long suspended = suspendedMorphs.remove(morph);
+			try {
+				morph.step((currentTime - suspended) / 1000.0f);
+				startStepping(morph);
+			} catch (Exception e) {
+				e.printStackTrace();
+				System.out.println("Error a Morph produced an exception while stepping, the offending morph was stopped");
+			}
+		}
+	}
+
+	/**
+	 * Return the number of morphs suspended because they are out of view
+	 */
+	public int getSuspendedCount() {
+		return suspendedMorphs.size();
+	}
+
+	/**
+	 * Start stepping all the given morphs that want steps.
+	 * 
+	 * @param morphs the morphs to start stepping
+	 */
+	public void startStepping(Collection<? extends Morph> morphs) {
+		for (Morph morph: morphs)
+			startStepping(morph);
+	}
+
+	/**
+	 * Stop stepping all the given morphs.
+	 * 
+	 * @param morphs the morphs to stop stepping
+	 */
+	public void stopStepping(Collection<? extends Morph> morphs) {
+		for (Morph morph: morphs)
+			stopStepping(morph);
+	}
+
 	@Override
 	public boolean wantsSteps() {
 		return true;
 	}
 
+	/**
+	 * Choose how the activities of this world are scheduled: in a binary heap (the default), or in a
+	 * hierarchical timing wheel with a resolution of one millisecond, that handles better lots of
+	 * activities stepping with a few periods.
+	 * 
+	 * @param timingWheel true to schedule the activities in a timing wheel, false to use a heap
+	 */
+	public synchronized void setTimingWheel(boolean timingWheel) {
+		if (timingWheel == isTimingWheel()) return;
+		ActivityQueue newActivities = timingWheel ? new ActivityTimingWheel(System.currentTimeMillis()) : new ActivityHeap();
+		for (ActivitySchedule schedule: activities.getSchedules()) {
+			activities.remove(schedule.key);
+			newActivities.add(schedule);
+		}
+		activities = newActivities;
+	}
+
+	public boolean isTimingWheel() {
+		return activities instanceof ActivityTimingWheel;
+	}
+
 	@Override
 	public float stepTime() {
-		ActivitySchedule schedule = activities.peek();
+		if (!actions.isEmpty()) return 0;
+		long time = activities.nextTime();
 		long currentTime = System.currentTimeMillis();
-		return (schedule == null ? 500 : schedule.time <= currentTime ? 0 : Math.min((int)(schedule.time - currentTime), 500)) / 1000.0f;
+		return (time <= currentTime ? 0 : Math.min(time - currentTime, 500)) / 1000.0f;
+	}
+
+	/**
+	 * Return the time of the next step (as <code>System.currentTimeMillis()</code>), or <code>Long.MAX_VALUE</code>
+	 * if there is nothing to step until an action is invoked.
+	 */
+	long nextStepTime() {
+		return actions.isEmpty() ? activities.nextTime() : 0;
 	}
 	
 	public void step() { //FIXME use step(float dt)
-		ActivitySchedule schedule = activities.peek();
+		runActions();
 		long currentTime = System.currentTimeMillis();
-		while (schedule != null && schedule.time <= currentTime) {
-			activities.poll();
+		List<ActivitySchedule> due = dueSchedules;
+		activities.pollDue(currentTime, due);
+		try {
+			stepAll(due, currentTime);
+		} finally {
+			due.clear();
+		}
+		flushChanges();
+		publishSnapshots();
+	}
+
+	/**
+	 * Let the eyes with a render target publish a snapshot of the world at the end of the tick
+	 */
+	private void publishSnapshots() {
+		for (EyeMorph eye: eyes) {
+			if (eye.getRenderTarget() != null) {
+				try {
+					eye.publishSnapshot();
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	private void stepAll(List<ActivitySchedule> due, long currentTime) {
+		if (overloadPolicy == OVERLOAD_SHED)
+			Collections.sort(due, BY_PRIORITY);
+		tickDeadline = System.nanoTime() + Math.min((long)(tickBudget * 1e9), Long.MAX_VALUE / 4);
+		tickSteps = 0;
+		tickOverloaded = false;
+		inTick = true;
+		try {
+			stepDue(due, currentTime);
+		} finally {
+			inTick = false;
+		}
+	}
+
+	private void stepDue(List<ActivitySchedule> due, long currentTime) {
+		for (int i=0; i<due.size(); i++) {
+			ActivitySchedule schedule = due.get(i);
+			// the schedules due stay in the queue while stepping, so they can be stopped (or started again) meanwhile
+			if (activities.get(schedule.key) != schedule) continue;
+			if (budgetRanOut()) {
+				overloaded(due, i, currentTime);
+				return;
+			}
 			try {
-				schedule.activity.step(schedule.activity.stepTime() + (currentTime - schedule.time) / 1000.0f);
-				if (schedule.activity.wantsSteps()) {
-					schedule.time = currentTime + Math.max((int)(schedule.activity.stepTime()*1000), 1);
-					activities.add(schedule);
+				float stepTime = schedule.activity.stepTime();
+				long lateness = currentTime - schedule.time;
+				float dt = stepTime + lateness / 1000.0f;
+				long missed = lateness / Math.max((int)(stepTime*1000), 1);
+				if (missed > 0) {
+					if (overloadPolicy == OVERLOAD_SKIP) {
+						skippedSteps += missed;
+						dt = stepTime;
+					} else {
+						lateSteps++;
+					}
+				}
+				schedule.activity.step(dt);
+				tickSteps++;
+				if (activities.get(schedule.key) == schedule) {
+					if (schedule.activity instanceof TickGroup && ((TickGroup) schedule.activity).hasLeftover())
+						activities.reschedule(schedule, schedule.time); // still due, the morphs left step in the next tick
+					else if (schedule.activity.wantsSteps())
+						activities.reschedule(schedule, currentTime + Math.max((int)(schedule.activity.stepTime()*1000), 1));
+					else
+						activities.remove(schedule.key);
 				}
 			} catch (Exception e) {
+				if (activities.get(schedule.key) == schedule)
+					activities.remove(schedule.key);
 				e.printStackTrace();
 				System.out.println("Error an Activity produced an exception, the offending activity was stopped");
 			}
-			schedule = activities.peek();
 		}
 	}
 
+	/**
+	 * Return true if the budget of the current tick ran out (after stepping something, so every tick makes progress)
+	 */
+	private boolean budgetRanOut() {
+		if (!inTick || tickSteps == 0 || System.nanoTime() - tickDeadline <= 0) return false;
+		if (!tickOverloaded) {
+			tickOverloaded = true;
+			overloadedTicks++;
+		}
+		return true;
+	}
+
+	/**
+	 * The tick budget ran out, postpone the rest of the schedules due according to the overload policy
+	 */
+	private void overloaded(List<ActivitySchedule> due, int from, long currentTime) {
+		for (int i=from; i<due.size(); i++) {
+			ActivitySchedule schedule = due.get(i);
+			if (activities.get(schedule.key) != schedule) continue;
+			if (overloadPolicy == OVERLOAD_COALESCE) {
+				// still due, it will step in the next tick with the accumulated dt
+				lateSteps++;
+				activities.reschedule(schedule, schedule.time);
+			} else {
+				skippedSteps++;
+				activities.reschedule(schedule, currentTime + Math.max((int)(schedule.activity.stepTime()*1000), 1));
+			}
+		}
+	}
+
+	/**
+	 * Set the time the world can spend stepping activities in each tick, and what to do with
+	 * the activities due when it runs out (or when they are late):
+	 * <ul>
+	 * <li>{@link #OVERLOAD_COALESCE}: the activities left step in the next tick, and late activities
+	 * step once with all the time passed as dt (this is the default);</li>
+	 * <li>{@link #OVERLOAD_SKIP}: the activities left, and the steps missed by late activities, are skipped;</li>
+	 * <li>{@link #OVERLOAD_SHED}: the activities with shorter step times step first, those left
+	 * (the ones with lower priority) skip this step.</li>
+	 * </ul>
+	 * The budget is checked between activities and between the morphs of a tick group. When it runs
+	 * out in the middle of a group, the morphs left follow the policy too: with {@link #OVERLOAD_COALESCE}
+	 * the group stays due and only the morphs left step in the next tick, otherwise they skip this step.
+	 * 
+	 * @param tickBudget the time budget for each tick, in seconds
+	 * @param overloadPolicy one of {@link #OVERLOAD_COALESCE}, {@link #OVERLOAD_SKIP} or {@link #OVERLOAD_SHED}
+	 */
+	public synchronized void setOverloadPolicy(float tickBudget, int overloadPolicy) {
+		if (overloadPolicy < OVERLOAD_COALESCE || overloadPolicy > OVERLOAD_SHED)
+			throw new IllegalArgumentException("Unknown overload policy: "+overloadPolicy);
+		this.tickBudget = tickBudget;
+		this.overloadPolicy = overloadPolicy;
+	}
+
+	public float getTickBudget() {
+		return tickBudget;
+	}
+
+	public int getOverloadPolicy() {
+		return overloadPolicy;
+	}
+
+	/**
+	 * Return the number of steps skipped, because the tick budget ran out or because they were missed
+	 */
+	public long getSkippedSteps() {
+		return skippedSteps;
+	}
+
+	/**
+	 * Return the number of steps done (or postponed to be done) later than their time
+	 */
+	public long getLateSteps() {
+		return lateSteps;
+	}
+
+	/**
+	 * Return the number of ticks where the budget ran out
+	 */
+	public long getOverloadedTicks() {
+		return overloadedTicks;
+	}
+
+	/**
+	 * Step the given morphs of a tick group (suspending those out of view), report their changes at once, and move the morphs
+	 * that changed their step time to another group. If the tick budget runs out, the morphs left are postponed or skipped
+	 * according to the overload policy.
+	 * 
+	 * @return the morphs left to step in the next tick, or null
+	 */
+	Morph[] stepGroup(TickGroup group, Morph[] morphs, float dt) {
+		List<Rectangle> views = null;
+		for (int i=0; i<morphs.length; i++) {
+			if (morphs[i].stepsOnlyWhenVisible()) {
+				if (views == null) views = getViews();
+				if (!isVisible(morphs[i], views))
+					suspend(morphs[i]);
+			}
+		}
+
+		Exception[] errors = new Exception[morphs.length];
+		List<Rectangle> changes = new ArrayList<Rectangle>();
+		List<Rectangle> previousChanges = collectedChanges.get();
+		collectedChanges.set(changes);
+		boolean[] concurrent = null;
+		int stepped = morphs.length; // the morphs from here on that didn't step concurrently are left
+		try {
+			if (parallelStepping)
+				concurrent = stepConcurrently(group, morphs, dt, errors, changes);
+			if (concurrent != null)
+				tickSteps++;
+			for (int i=0; i<morphs.length; i++) {
+				// a morph may have been stopped by another one
+				if ((concurrent != null && concurrent[i]) || steppingGroups.get(morphs[i]) != group) continue;
+				if (budgetRanOut()) {
+					stepped = i;
+					break;
+				}
+				try {
+					morphs[i].step(dt);
+				} catch (Exception e) {
+					errors[i] = e;
+				}
+				tickSteps++;
+			}
+		} finally {
+			collectedChanges.set(previousChanges);
+		}
+
+		if (!changes.isEmpty()) {
+			Rectangle area = changes.get(0);
+			for (int i=1; area != null && i<changes.size(); i++) {
+				Rectangle rect = changes.get(i);
+				area = rect == null ? null : area.union(rect);
+			}
+			changed(area);
+		}
+
+		List<Morph> left = new ArrayList<Morph>();
+		for (int i=0; i<morphs.length; i++) {
+			Morph morph = morphs[i];
+			if (steppingGroups.get(morph) != group) continue;
+			if (i >= stepped && (concurrent == null || !concurrent[i])) {
+				left.add(morph);
+			} else if (errors[i] != null) {
+				stopStepping(morph);
+				errors[i].printStackTrace();
+				System.out.println("Error a Morph produced an exception while stepping, the offending morph was stopped");
+			} else if (!morph.wantsSteps()) {
+				stopStepping(morph);
+			} else if (periodOf(morph) != group.getPeriod()) {
+				stopStepping(morph);
+				startStepping(morph);
+			}
+		}
+
+		if (left.isEmpty()) return null;
+		if (overloadPolicy == OVERLOAD_COALESCE) {
+			lateSteps += left.size();
+			return left.toArray(new Morph[left.size()]);
+		}
+		skippedSteps += left.size();
+		group.moveToFront(left); // so they aren't the ones skipped again in the next tick
+		return null;
+	}
+
+	/**
+	 * Step the given morphs that can step concurrently in the ForkJoin pool, if there are enough of them.
+	 * 
+	 * @return which morphs were stepped, or null if none
+	 */
+	private boolean[] stepConcurrently(TickGroup group, Morph[] morphs, float dt, Exception[] errors, List<Rectangle> changes) {
+		boolean[] concurrent = new boolean[morphs.length];
+		int count = 0;
+		for (int i=0; i<morphs.length; i++) {
+			if (morphs[i].canStepConcurrently() && steppingGroups.get(morphs[i]) == group) {
+				concurrent[i] = true;
+				count++;
+			}
+		}
+		if (count < 2 * PARALLEL_STEPS) return null; // not worth it
+
+		int[] indices = new int[count];
+		for (int i=0, j=0; i<morphs.length; i++) {
+			if (concurrent[i])
+				indices[j++] = i;
+		}
+		ParallelSteps steps = new ParallelSteps(morphs, indices, dt, errors, 0, count);
+		getForkJoinPool().invoke(steps);
+		for (List<Rectangle> taskChanges: steps.changes)
+			changes.addAll(taskChanges);
+		return concurrent;
+	}
+
+	/**
+	 * Steps a range of morphs in parallel, collecting the changes they report in a list per task
+	 */
+	class ParallelSteps extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		final Morph[] morphs;
+		final int[] indices;
+		final float dt;
+		final Exception[] errors;
+		final Queue<List<Rectangle>> changes;
+		final int from, to;
+
+		ParallelSteps(Morph[] morphs, int[] indices, float dt, Exception[] errors, int from, int to) {
+			this(morphs, indices, dt, errors, new ConcurrentLinkedQueue<List<Rectangle>>(), from, to);
+		}
+
+		private ParallelSteps(Morph[] morphs, int[] indices, float dt, Exception[] errors, Queue<List<Rectangle>> changes, int from, int to) {
+			this.morphs = morphs;
+			this.indices = indices;
+			this.dt = dt;
+			this.errors = errors;
+			this.changes = changes;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > PARALLEL_STEPS) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new ParallelSteps(morphs, indices, dt, errors, changes, from, middle),
+						new ParallelSteps(morphs, indices, dt, errors, changes, middle, to));
+				return;
+			}
+			List<Rectangle> taskChanges = new ArrayList<Rectangle>();
+			changes.add(taskChanges);
+			List<Rectangle> previousChanges = collectedChanges.get();
+			collectedChanges.set(taskChanges);
+			try {
+				for (int i=from; i<to; i++) {
+					int index = indices[i];
+					try {
+						morphs[index].step(dt);
+					} catch (Exception e) {
+						errors[index] = e;
+					}
+				}
+			} finally {
+				collectedChanges.set(previousChanges);
+			}
+		}
+	}
+
+	/**
+	 * Step the morphs that can step concurrently (see {@link Morph#canStepConcurrently()}) in
+	 * parallel, in the shared ForkJoin pool (see {@link #getForkJoinPool()}). The changes they report are collected while they step
+	 * and passed to the eyes when all of them are done.
+	 * 
+	 * @param parallelStepping true to step in parallel
+	 */
+	public void setParallelStepping(boolean parallelStepping) {
+		this.parallelStepping = parallelStepping;
+	}
+
+	public boolean isParallelStepping() {
+		return parallelStepping;
+	}
+
+	/**
+	 * Return the ForkJoin pool shared by all the worlds to do work in parallel, with a thread per
+	 * processor. It's created the first time it's needed.
+	 */
+	public static synchronized ForkJoinPool getForkJoinPool() {
+		if (forkJoinPool == null)
+			forkJoinPool = new ForkJoinPool();
+		return forkJoinPool;
+	}
+
 	@Override
 	public void startStepping() {
-		stopStepping();
+		detach();
 		
-		steppingThread = new Thread(new Runnable() {
+		Thread thread = new Thread(new Runnable() {
 			public void run() {
-				try {
-					while (wantsSteps()) {
-						Thread.sleep((int)(stepTime()*1000));
-						synchronized(WorldMorph.this) {
-							step();
-						}
-						if (Thread.currentThread().isInterrupted())
-							return;
+				while (wantsSteps()) {
+					// park instead of sleeping, so invokeLater can wake the thread up
+					long nanos = (long)(stepTime()*1000000000L);
+					if (nanos > 0)
+						LockSupport.parkNanos(WorldMorph.this, nanos);
+					else
+						Thread.yield(); // let input and rendering in when stepping falls behind
+					if (Thread.currentThread().isInterrupted())
+						return;
+					synchronized(WorldMorph.this) {
+						step();
 					}
-				} catch (InterruptedException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-					return;
 				}
 			}
 		});
 		
-		steppingThread.start();
+		steppingThread = thread;
+		thread.start();
+	}
+
+	/**
+	 * Start stepping in the given runtime, shared with other worlds, instead of in a thread of its own.
+	 * 
+	 * @param runtime the runtime that will step this world
+	 */
+	public void startStepping(WorldRuntime runtime) {
+		detach();
+		this.runtime = runtime;
+		runtime.add(this);
 	}
 
+	/**
+	 * Stop stepping the world. The threaded activities are stopped (see {@link #startActivity(ThreadedActivity)})
+	 * and the actions waiting to be run (see {@link #invokeLater(Runnable)}) are run now, so the threads
+	 * waiting for them don't wait forever.
+	 */
 	@Override
 	public void stopStepping() {
+		ThreadedActivity[] activities;
+		synchronized(threadedActivities) {
+			activities = threadedActivities.toArray(new ThreadedActivity[threadedActivities.size()]);
+			threadedActivities.clear();
+		}
+		for (ThreadedActivity activity: activities)
+			activity.stop();
+		detach();
+		synchronized(this) {
+			runActions();
+		}
+	}
+
+	/**
+	 * Stop the thread or the runtime stepping the world, if any
+	 */
+	private void detach() {
 		if (steppingThread != null) {
 			steppingThread.interrupt();
 			steppingThread = null;
 		}
+		if (runtime != null) {
+			runtime.remove(this);
+			runtime = null;
+		}
 	}
 
 	public boolean isStepping() {
-		return steppingThread != null;
+		return steppingThread != null || runtime != null;
+	}
+
+	/**
+	 * Return the runtime stepping this world, or null if it's not stepping in a runtime
+	 */
+	public WorldRuntime getRuntime() {
+		return runtime;
 	}
 	
 	public List<HandMorph> getHands() {
@@ -211,13 +992,11 @@ public class WorldMorph extends Morph {
 		return Collections.unmodifiableList(hands);
 	}
 
+	/**
+	 * Return the eyes of this world, in Z-order
+	 */
 	public List<EyeMorph> getEyes() {
-		List<EyeMorph> eyes = new ArrayList<EyeMorph>();
-		for (Morph m: submorphs) {
-			if (m instanceof EyeMorph)
-				eyes.add((EyeMorph)m);
-		}
-		return Collections.unmodifiableList(eyes);
+		return eyes;
 	}
 
 	public static WorldMorph example1() {
@@ -369,11 +1148,13 @@ public class WorldMorph extends Morph {
 	public static WorldMorph exampleBalls() {
 		WorldMorph world = new WorldMorph();
 
+		List<Morph> balls = new ArrayList<Morph>();
 		for (int i=0; i<1000; i++) {
 			Morph morph = new BallMorph();
 			morph.scaleBy(0.01f);
-			world.addMorph(morph);
+			balls.add(morph);
 		}
+		world.addMorphs(balls);
 	
 		return world;
 	}
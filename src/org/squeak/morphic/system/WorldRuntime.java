@@ -0,0 +1,316 @@
+package org.squeak.morphic.system;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>Steps many worlds with a small pool of worker threads, instead of a thread per world.</p>
+ *
+ * <p>The worlds wait in a queue ordered by the time of their next step; a worker takes the first
+ * world due, steps it once (holding the world lock, see {@link WorldMorph#step()}) and puts it back
+ * in the queue at the time of its next step. A world with nothing to step is not in the queue at all,
+ * until {@link WorldMorph#invokeLater(Runnable)} wakes it up, so idle worlds cost nothing.</p>
+ *
+ * <p>Each step is bounded by the tick budget of the world (see {@link WorldMorph#setOverloadPolicy(float, int)}),
+ * and a world that is still due after stepping goes behind the other worlds due, so a busy world
+ * can't starve the others. The CPU time spent stepping each world is accounted.</p>
+ *
+ * <pre>
+ * WorldRuntime runtime = WorldRuntime.getShared();
+ * world.startStepping(runtime);
+ * </pre>
+ *
+ * @see org.squeak.morphic.system.WorldMorph#startStepping(WorldRuntime)
+ */
+public class WorldRuntime {
+
+	private static WorldRuntime shared;
+
+	private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+	/**
+	 * A world in the runtime, with its place in the queue and its accounting
+	 */
+	private static class Slot {
+		final WorldMorph world;
+		long order; // to keep the worlds due at the same time in order, renewed when the world is requeued
+		long due;
+		boolean queued, running, woken, removed;
+		long ticks, cpuTime; // nanoseconds
+		Slot(WorldMorph world, long order) {
+			this.world = world;
+			this.order = order;
+		}
+	}
+
+	private static final Comparator<Slot> BY_TIME = new Comparator<Slot>() {
+		public int compare(Slot s1, Slot s2) {
+			if (s1.due != s2.due) return s1.due < s2.due ? -1 : 1;
+			return s1.order < s2.order ? -1 : s1.order == s2.order ? 0 : 1;
+		}
+	};
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition available = lock.newCondition();
+	private final PriorityQueue<Slot> queue = new PriorityQueue<Slot>(64, BY_TIME);
+	private final Map<WorldMorph, Slot> slots = new IdentityHashMap<WorldMorph, Slot>();
+	private final Thread[] workers;
+	private long order;
+	private volatile boolean shutdown;
+
+	/**
+	 * Return the runtime shared by all the worlds of this JVM, with a worker per processor.
+	 */
+	public static synchronized WorldRuntime getShared() {
+		if (shared == null)
+			shared = new WorldRuntime(Runtime.getRuntime().availableProcessors());
+		return shared;
+	}
+
+	/**
+	 * @param workers the number of worker threads
+	 */
+	public WorldRuntime(int workers) {
+		if (workers < 1)
+			throw new IllegalArgumentException("A runtime needs at least one worker");
+		this.workers = new Thread[workers];
+		for (int i=0; i<workers; i++) {
+			Thread thread = new Thread(new Runnable() {
+				public void run() {
+					work();
+				}
+			}, "WorldRuntime worker "+i);
+			thread.setDaemon(true);
+			this.workers[i] = thread;
+			thread.start();
+		}
+	}
+
+	/**
+	 * Start stepping the given world, use {@link WorldMorph#startStepping(WorldRuntime)} instead.
+	 */
+	void add(WorldMorph world) {
+		lock.lock();
+		try {
+			if (shutdown)
+				throw new IllegalStateException("The runtime is shut down");
+			if (slots.containsKey(world)) return;
+			Slot slot = new Slot(world, order++);
+			slots.put(world, slot);
+			schedule(slot, 0);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Stop stepping the given world, use {@link WorldMorph#stopStepping()} instead. If the world
+	 * is stepping it finishes the step.
+	 */
+	void remove(WorldMorph world) {
+		lock.lock();
+		try {
+			Slot slot = slots.remove(world);
+			if (slot == null) return;
+			slot.removed = true;
+			if (slot.queued) {
+				queue.remove(slot);
+				slot.queued = false;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Step the given world as soon as possible, called by {@link WorldMorph#invokeLater(Runnable)}.
+	 */
+	void wake(WorldMorph world) {
+		lock.lock();
+		try {
+			Slot slot = slots.get(world);
+			if (slot == null) return;
+			if (slot.running)
+				slot.woken = true; // step again when done
+			else if (!slot.queued || slot.due > 0)
+				schedule(slot, 0);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Put the slot in the queue at the given time (or take it out if the time is Long.MAX_VALUE), holding the lock
+	 */
+	private void schedule(Slot slot, long time) {
+		if (slot.queued) {
+			queue.remove(slot);
+			slot.queued = false;
+		}
+		if (time == Long.MAX_VALUE) return; // idle, until woken up
+		slot.due = time;
+		slot.queued = true;
+		queue.add(slot);
+		if (queue.peek() == slot)
+			available.signal();
+	}
+
+	private void work() {
+		while (true) {
+			Slot slot;
+			lock.lock();
+			try {
+				slot = take();
+				if (slot == null) return;
+			} finally {
+				lock.unlock();
+			}
+
+			WorldMorph world = slot.world;
+			long time = Long.MAX_VALUE;
+			long start = cpuTime();
+			try {
+				synchronized(world) {
+					world.step();
+					time = world.nextStepTime();
+				}
+			} catch (Exception e) {
+				e.printStackTrace();
+				time = System.currentTimeMillis(); // try again, after the others
+			}
+			long cpuTime = cpuTime() - start;
+
+			lock.lock();
+			try {
+				slot.running = false;
+				slot.ticks++;
+				slot.cpuTime += cpuTime;
+				long now = System.currentTimeMillis();
+				if (slot.woken || time <= now) {
+					// still due, behind the other worlds due (even those due later than its old time)
+					time = now;
+					slot.order = order++;
+				}
+				if (!slot.removed)
+					schedule(slot, time);
+				slot.woken = false;
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Wait for the first world due and take it out of the queue, holding the lock
+	 *
+	 * @return the slot of the world to step, or null if the runtime was shut down
+	 */
+	private Slot take() {
+		while (!shutdown) {
+			Slot slot = queue.peek();
+			if (slot == null) {
+				available.awaitUninterruptibly();
+				continue;
+			}
+			long delay = slot.due - System.currentTimeMillis();
+			if (delay > 0) {
+				try {
+					available.await(delay, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					return null;
+				}
+				continue;
+			}
+			queue.poll();
+			slot.queued = false;
+			slot.running = true;
+			if (!queue.isEmpty())
+				available.signal(); // let another worker wait for the next one
+			return slot;
+		}
+		return null;
+	}
+
+	private static long cpuTime() {
+		return threads.isCurrentThreadCpuTimeSupported() ? threads.getCurrentThreadCpuTime() : System.nanoTime();
+	}
+
+	/**
+	 * Stop all the workers, the worlds stop stepping (see {@link WorldMorph#stopStepping()}), so
+	 * their pending actions are run and the actions invoked later run right away.
+	 */
+	public void shutdown() {
+		List<WorldMorph> worlds;
+		lock.lock();
+		try {
+			shutdown = true;
+			available.signalAll();
+			worlds = new ArrayList<WorldMorph>(slots.keySet());
+		} finally {
+			lock.unlock();
+		}
+		for (Thread worker: workers)
+			worker.interrupt();
+		// outside the lock, stopping takes the lock of each world
+		for (WorldMorph world: worlds) {
+			if (world.getRuntime() == this)
+				world.stopStepping();
+		}
+	}
+
+	public boolean isShutdown() {
+		return shutdown;
+	}
+
+	public int getWorkerCount() {
+		return workers.length;
+	}
+
+	/**
+	 * Return the worlds stepped by this runtime
+	 */
+	public List<WorldMorph> getWorlds() {
+		lock.lock();
+		try {
+			return Collections.unmodifiableList(new ArrayList<WorldMorph>(slots.keySet()));
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Return the CPU time spent stepping the given world, in seconds
+	 */
+	public float getCpuTime(WorldMorph world) {
+		lock.lock();
+		try {
+			Slot slot = slots.get(world);
+			return slot == null ? 0 : slot.cpuTime / 1e9f;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Return the number of times the given world has been stepped
+	 */
+	public long getTicks(WorldMorph world) {
+		lock.lock();
+		try {
+			Slot slot = slots.get(world);
+			return slot == null ? 0 : slot.ticks;
+		} finally {
+			lock.unlock();
+		}
+	}
+}